@@ -111,6 +111,16 @@ class Calculator<Result> {
         // 最初に記号の前後に空白を入れてから, 空白文字でぶった切る
         return line.replaceAll("(\\W)"," $1 ").replaceAll("^\\s+","").split("\\s+");
     }
+    /**
+     * 文字列を空白文字だけでトークンに分割する.
+     * {@code tokenize} と違って記号の前後では切らないので, 
+     * {@code -1.5e-3} のような実数をひとつのトークンとして取り出したい「コマンド」が使う. 
+     * @param line 分割対象の文字列.
+     * @return 分割されたトークンが順に並んだ配列.
+     */
+    static String [] words(String line) {
+        return line.trim().split("\\s+");
+    }
     /**
      * 与えられた「結果」を標準出力へ表示する. 
      * @param res 表示したい「結果」.
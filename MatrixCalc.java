@@ -4,18 +4,22 @@
  * コンパイル & 実行：
  * javac Calculator.java IntCalc.java MemoCalc.java MatrixCalc.java
  * java MatrixCalc
+ * Vector API 版のカーネルを使う場合は vector/MatrixVector.java の先頭を, 
+ * 行列をヒープの外に置く場合は offheap/MatrixOffHeap.java の先頭を参照. 
  */
 
 import java.util.*;
 import java.io.*;
+import java.util.concurrent.*;
 //import java.math.*;
 
 /**
  * 電卓の「結果」として使う行列を表すクラス. 
- * 行列の要素は {@code double} の2次元配列で保持する. 
+ * 行列の要素は {@code double} の1次元配列にまとめて（行優先か列優先で）保持する. 
  * 加算や単位行列生成などの演算や, 行列を文字列から読み込む機能を提供する. 
+ * 正方行列は行列ベクトル積を通して {@code LinearOperator} としても使える. 
  */
-class Matrix {
+class Matrix implements LinearOperator {
     /**
      * 行列の行数. 
      */
@@ -26,39 +30,239 @@ class Matrix {
     final int n;
     /**
      * 行列の要素. 
-     * 並びは自然な並びで： {@code vals[i][j]} が (i, j) 要素. 
+     * 行ごとに別の配列を持つのではなく, 全要素をひとつの {@code double} 配列に詰めて保持する. 
+     * (i, j) 要素の位置は {@link #idx(int, int)} で求める. 
+     * ビュー（転置や部分行列）の場合は, 元の行列と同じ配列を共有する. 
+     * ヒープの外に要素を置いた行列では {@code null} で, 代わりに {@code offheap} を使う. 
      */
-    double [][] vals;
+    double [] vals;
+    /**
+     * ヒープの外に置いた要素. 普通の（ヒープ上の）行列では {@code null}. 
+     * 添字の付け方は {@code vals} と同じ. 
+     */
+    final MatrixStorage offheap;
+    /**
+     * (0, 0) 要素の {@code vals} 上の位置. 
+     */
+    final int off;
+    /**
+     * 行のストライド. (i+1, j) 要素と (i, j) 要素の {@code vals} 上の間隔. 
+     * 行優先で詰めて並べた行列なら {@code n}, 列優先なら 1. 
+     */
+    final int rs;
+    /**
+     * 列のストライド. (i, j+1) 要素と (i, j) 要素の {@code vals} 上の間隔. 
+     * 行優先で詰めて並べた行列なら 1, 列優先なら {@code m}. 
+     */
+    final int cs;
+    /**
+     * 他の行列の要素を共有するビューであるときに {@code true}. 
+     */
+    final boolean view;
+    /**
+     * 内側のループに使うカーネル. 起動時に {@code MatrixCalc} が選ぶ. 
+     */
+    static MatrixKernels kernels = new ScalarKernels();
+    /**
+     * この行列を値として保持している {@code Memory} の変数の数. 
+     * 0 のときは現在の「結果」以外から参照されていないので, コマンドがその場で書き換えてよい. 
+     */
+    int refs = 0;
+    /**
+     * LU 分解のキャッシュ. 自身を書き換えるメソッドは {@code null} に戻す. 
+     * ビューを通して書き換えた場合は元の行列のキャッシュは消えないので, ビューへの書き込みには注意すること. 
+     */
+    LUDecomposition luCache;
+    /**
+     * コレスキー分解のキャッシュ（分解に失敗した結果も含む. 失敗した結果は L の配列を持たない）. {@code luCache} と同じく書き換えで {@code null} に戻す. 
+     */
+    CholeskyDecomposition cholCache;
     /**
      * {@code m}×{@code n} のゼロ行列を作るコンストラクタ. 
+     * 要素は行優先で並べる. 
      * @param m 行数 
      * @param n 列数 
      */
     Matrix(int m, int n) {
-        this.m = m;
-        this.n = n;
-        vals = new double[m][n];
+        this(m, n, false);
+    }
+    /**
+     * 要素の並びを指定して {@code m}×{@code n} のゼロ行列を作るコンストラクタ. 
+     * @param m 行数 
+     * @param n 列数 
+     * @param colMajor 列優先で並べるなら {@code true}
+     */
+    Matrix(int m, int n, boolean colMajor) {
+        this(new double[m * n], null, 0, m, n, colMajor ? 1 : n, colMajor ? m : 1, false);
     }
     /**
      * 与えられた行列をコピーするコンストラクタ. 
+     * 要素の並び（行優先か列優先か）もコピー元に合わせる. 
+     * コピー元がビューであっても, コピーは隙間なく詰めた普通の行列になる. 
      * @param mat コピー元の行列. 
      */
     Matrix(Matrix mat) {
-        this(mat.m, mat.n);
-        copy(mat.vals);
+        this(mat.m, mat.n, mat.colMajor());
+        copy(mat);
+    }
+    /**
+     * 配列と並び方を直接指定するコンストラクタ. ビューやヒープ外の行列を作るのに使う. 
+     * @param vals 要素を保持する配列（コピーせずにそのまま使う）. ヒープ外の行列なら {@code null}
+     * @param offheap ヒープ外で要素を保持する領域. 普通の行列なら {@code null}
+     * @param off (0, 0) 要素の位置
+     * @param m 行数 
+     * @param n 列数 
+     * @param rs 行のストライド
+     * @param cs 列のストライド
+     * @param view 他の行列と {@code vals} を共有するなら {@code true}
+     */
+    Matrix(double [] vals, MatrixStorage offheap, int off, int m, int n, int rs, int cs, boolean view) {
+        this.m = m;
+        this.n = n;
+        this.vals = vals;
+        this.offheap = offheap;
+        this.off = off;
+        this.rs = rs;
+        this.cs = cs;
+        this.view = view;
     }
     /**
-     * 与えられた2次元配列の内容を自身の要素としてコピーする. 
-     * 次元は矛盾しないとする（与えられた2次元配列の方が大きければ良い）. 
-     * @param vals コピー元の2次元配列. 
+     * (i, j) 要素が {@code vals} のどこにあるかを返す. 
+     * @param i 行番号
+     * @param j 列番号
+     * @return (i, j) 要素の {@code vals} 上の添字
      */
-    void copy(double [][] vals) {
+    final int idx(int i, int j) {
+        return off + i * rs + j * cs;
+    }
+    /**
+     * (i, j) 要素を返す. 
+     * @param i 行番号
+     * @param j 列番号
+     * @return (i, j) 要素の値
+     */
+    double get(int i, int j) {
+        return vals != null ? vals[idx(i, j)] : offheap.get(idx(i, j));
+    }
+    /**
+     * (i, j) 要素を書き換える. 
+     * @param i 行番号
+     * @param j 列番号
+     * @param v 新しい値
+     */
+    void set(int i, int j, double v) {
+        luCache = null;
+        cholCache = null;
+        if(vals != null) {
+            vals[idx(i, j)] = v;
+        } else {
+            offheap.set(idx(i, j), v);
+        }
+    }
+    /**
+     * 要素が Java のヒープ上の配列 {@code vals} にあるときに {@code true} を返す. 
+     * 配列を直接舐める速い経路は, この場合にだけ使える. 
+     * @return ヒープ外の行列でなければ {@code true}. 
+     */
+    final boolean onHeap() {
+        return vals != null;
+    }
+    /**
+     * 列優先で（同じ列の要素が近くに）並んでいるときに {@code true} を返す. 
+     * @return 列のストライドの方が行のストライドより大きいときに {@code true}. 
+     */
+    boolean colMajor() {
+        return cs > rs;
+    }
+    /**
+     * 要素が隙間なく詰まっていて, {@code vals[off]} から {@code m*n} 個を一列に舐めれば全要素を舐められるときに {@code true} を返す. 
+     * @return 行優先か列優先で詰まって格納されているときに {@code true}. 
+     */
+    boolean contiguous() {
+        return (cs == 1 || n == 1) && (rs == n || m == 1)
+            || (rs == 1 || m == 1) && (cs == m || n == 1);
+    }
+    /**
+     * 要素の並びが自身と同じで, 隙間なく詰まっている（{@code vals} を先頭から一列に舐めればよい）ときに {@code true} を返す. 
+     * @param mat 行列. 
+     * @return {@code mat} と自身がともにヒープ上に同じ並びで詰まって格納されているときに {@code true}. 
+     */
+    boolean sameLayout(Matrix mat) {
+        return onHeap() && mat.onHeap() && contiguous() && mat.contiguous()
+            && (rs == mat.rs || m == 1) && (cs == mat.cs || n == 1);
+    }
+    /**
+     * 与えられた行列の内容を自身の要素としてコピーする. 
+     * 次元は矛盾しないとする（与えられた行列の方が大きければ良い）. 
+     * @param mat コピー元の行列. 
+     */
+    void copy(Matrix mat) {
+        luCache = null;
+        cholCache = null;
+        // 疎行列なら 0 で埋めてから非零要素だけを書く
+        if(mat instanceof SparseMatrix && mat.m == m && mat.n == n) {
+            SparseMatrix.clear(this);
+            ((SparseMatrix)mat).scatterInto(1, this);
+            return;
+        }
+        if(mat.m == m && mat.n == n && sameLayout(mat)) {
+            System.arraycopy(mat.vals, mat.off, vals, off, m * n);
+            return;
+        }
         for(int i = 0; i < m; i++) {
             for(int j = 0; j < n; j++) {
-                this.vals[i][j] = vals[i][j];
+                set(i, j, mat.get(i, j));
             }
         }
     }
+    /**
+     * 転置行列のビューを返す. 要素はコピーせず, 行と列のストライドを入れ替えるだけ. 
+     * @return {@code this} の転置行列となる {@code n}×{@code m} のビュー. 
+     */
+    Matrix t() {
+        return new Matrix(vals, offheap, off, n, m, cs, rs, true);
+    }
+    /**
+     * 部分行列のビューを返す. 要素はコピーしない. 
+     * 行 {@code r0}..{@code r1-1}, 列 {@code c0}..{@code c1-1} の部分となる. 
+     * @param r0 最初の行
+     * @param r1 最後の行の次
+     * @param c0 最初の列
+     * @param c1 最後の列の次
+     * @return 部分行列となるビュー. 範囲がおかしい場合には {@code null}. 
+     */
+    Matrix slice(int r0, int r1, int c0, int c1) {
+        if(r0 < 0 || r1 > m || r0 >= r1 || c0 < 0 || c1 > n || c0 >= c1) return null;
+        return new Matrix(vals, offheap, idx(r0, c0), r1 - r0, c1 - c0, rs, cs, true);
+    }
+    /**
+     * {@code i} 行目を 1×{@code n} の行ベクトルのビューとして返す. 
+     * @param i 行番号
+     * @return 行ベクトルとなるビュー. 範囲外なら {@code null}. 
+     */
+    Matrix row(int i) {
+        return slice(i, i + 1, 0, n);
+    }
+    /**
+     * {@code j} 列目を {@code m}×1 の列ベクトルのビューとして返す. 
+     * @param j 列番号
+     * @return 列ベクトルとなるビュー. 範囲外なら {@code null}. 
+     */
+    Matrix col(int j) {
+        return slice(0, m, j, j + 1);
+    }
+    /**
+     * 自身の内容をヒープの外に確保した領域にコピーした行列を返す. 
+     * 大きな行列をヒープの外に置けば, GC が舐める量が減り, ヒープの大きさの制限も受けない. 
+     * @return ヒープ外の行列（行優先）. ヒープ外の領域が使えない環境では {@code null}. 
+     */
+    Matrix toOffHeap() {
+        MatrixStorage st = MatrixStorage.allocate((long)m * n);
+        if(st == null) return null;
+        Matrix ret = new Matrix(null, st, 0, m, n, n, 1, false);
+        ret.copy(this);
+        return ret;
+    }
     /**
      * 与えら得た行列がサイズ違いで自身に加減算できないときに {@code true} を返す. 
      * @param mat 行列. 
@@ -67,6 +271,14 @@ class Matrix {
     boolean sizeMismatch(Matrix mat) {
         return (mat.m != m) || (mat.n != n);
     }
+    /**
+     * 他から参照されておらず, その場で書き換えても構わないときに {@code true} を返す. 
+     * ビューは元の行列の要素を書き換えてしまうので, その場では書き換えない. 
+     * @return ビューでなく, どの変数にも保存されていなければ {@code true}. 
+     */
+    boolean reusable() {
+        return refs == 0 && !view;
+    }
     /**
      * 与えられた行列と自身の加算結果の行列を新たに生成して返す. 
      * @param mat 加算する行列
@@ -76,248 +288,5258 @@ class Matrix {
     Matrix add(Matrix mat) {
         // 計算できないときには null を返す. 
         if(mat == null || sizeMismatch(mat)) return null;
-        // あとは単純な加算
-        Matrix ret = new Matrix(m, n);
+        return addInto(mat, new Matrix(m, n, colMajor()));
+    }
+    /**
+     * 与えられた行列と自身の加算結果を {@code dst} に書き込む. 
+     * {@code dst} は {@code this} や {@code mat} そのものでもよい（その場で足し込む）. 
+     * @param mat 加算する行列
+     * @param dst 結果を書き込む行列
+     * @return {@code dst}. サイズ違いなどで計算不可能な場合には {@code null}. 
+     */
+    Matrix addInto(Matrix mat, Matrix dst) {
+        return axpyInto(1, mat, dst);
+    }
+    /**
+     * 自身から与えられた行列を引いた結果の行列を新たに生成して返す. 
+     * @param mat 減算する行列
+     * @return 行列減算 {@code this} - {@code mat} の結果となる行列. 
+     *         サイズ違いなどで計算不可能な場合には {@code null}. 
+     */
+    Matrix sub(Matrix mat) {
+        if(mat == null || sizeMismatch(mat)) return null;
+        return subInto(mat, new Matrix(m, n, colMajor()));
+    }
+    /**
+     * 自身から与えられた行列を引いた結果を {@code dst} に書き込む. 
+     * {@code dst} は {@code this} や {@code mat} そのものでもよい. 
+     * @param mat 減算する行列
+     * @param dst 結果を書き込む行列
+     * @return {@code dst}. サイズ違いなどで計算不可能な場合には {@code null}. 
+     */
+    Matrix subInto(Matrix mat, Matrix dst) {
+        return axpyInto(-1, mat, dst);
+    }
+    /**
+     * {@code this} + {@code a} * {@code mat} を {@code dst} に書き込む. 
+     * 加算と減算の共通部分. 
+     */
+    Matrix axpyInto(double a, Matrix mat, Matrix dst) {
+        // 計算できないときには null を返す. 
+        if(mat == null || dst == null || sizeMismatch(mat) || sizeMismatch(dst)) return null;
+        dst.luCache = null;
+        dst.cholCache = null;
+        // 疎行列を足すなら非零要素だけを
+        if(mat instanceof SparseMatrix) {
+            if(dst != this) dst.copy(this);
+            ((SparseMatrix)mat).scatterInto(a, dst);
+            return dst;
+        }
+        // 並びが揃っていれば配列を先頭から一気に
+        if(sameLayout(mat) && sameLayout(dst)) {
+            if(a == 1) {
+                kernels.add(m * n, this.vals, this.off, mat.vals, mat.off, dst.vals, dst.off);
+            } else if(dst == mat && dst != this) {
+                // 先に this を写すと mat が消えるので, mat をその場で a 倍してから this を足す
+                kernels.scale(m * n, a, dst.vals, dst.off, dst.vals, dst.off);
+                kernels.add(m * n, this.vals, this.off, dst.vals, dst.off, dst.vals, dst.off);
+            } else {
+                if(dst != this) System.arraycopy(this.vals, this.off, dst.vals, dst.off, m * n);
+                kernels.axpy(m * n, a, mat.vals, mat.off, dst.vals, dst.off);
+            }
+            return dst;
+        }
+        // 並びが違うときは要素ごとに
+        for(int i = 0; i < m; i++) {
+            for(int j = 0; j < n; j++) {
+                dst.set(i, j, this.get(i, j) + a * mat.get(i, j));
+            }
+        }
+        return dst;
+    }
+    /**
+     * 自身を与えられたdouble型の実数でスカラー倍した結果の行列を新たに生成して返す. 
+     * @param a 行列をスカラー倍する実数
+     * @return 行列のスカラー倍 {@code this} * {@code a} の結果となる行列.  
+     */
+    Matrix smul(double a) {
+        // あとは単純なスカラー倍
+        return new Matrix(this).scaleInPlace(a);
+    }
+    /**
+     * 自身をその場でスカラー倍する. 
+     * @param a 行列をスカラー倍する実数
+     * @return {@code this}
+     */
+    Matrix scaleInPlace(double a) {
+        luCache = null;
+        cholCache = null;
+        // 詰まっていれば配列を一気に
+        if(onHeap() && contiguous()) {
+            kernels.scale(m * n, a, vals, off, vals, off);
+            return this;
+        }
         for(int i = 0; i < m; i++) {
             for(int j = 0; j < n; j++) {
-                ret.vals[i][j] = this.vals[i][j] + mat.vals[i][j];
+                set(i, j, get(i, j) * a);
             }
         }
-        return ret;
+        return this;
+    }
+    /**
+     * 与えられた行列と自身の乗算結果の行列を新たに生成して返す. 
+     * @param mat 乗算する行列
+     * @return 行列乗算 {@code this} * {@code mat} の結果となる行列. 
+     *         サイズ違いなどで計算不可能な場合には {@code null}. 
+     */
+    Matrix mul(Matrix mat) {
+        // 計算できないときには null を返す. 
+        if(mat == null || this.n != mat.m) return null;
+        // 疎行列を掛けるなら非零要素だけを舐める
+        if(mat instanceof SparseMatrix) return ((SparseMatrix)mat).leftMulInto(this, new Matrix(this.m, mat.n));
+        // 指定されていれば大きな正方行列は Strassen-Winograd 法で
+        if(Strassen.applies(this, mat)) return Strassen.mul(this, mat);
+        // 実際の計算はブロック化した乗算カーネルに任せる
+        return mulInto(mat, new Matrix(this.m, mat.n));
+    }
+    /**
+     * 与えられた行列と自身の乗算結果を {@code dst} に書き込む. 
+     * {@code dst} の元の内容は捨てられる. 
+     * {@code dst} は {@code this} や {@code mat} と同じ行列であってはならない. 
+     * @param mat 乗算する行列
+     * @param dst 結果を書き込む {@code this.m}×{@code mat.n} の行列
+     * @return {@code dst}. サイズ違いなどで計算不可能な場合には {@code null}. 
+     */
+    Matrix mulInto(Matrix mat, Matrix dst) {
+        if(mat == null || dst == null || this.n != mat.m || dst.m != this.m || dst.n != mat.n) return null;
+        if(dst == this || dst == mat) throw new IllegalArgumentException("mulInto: dst must not alias an operand");
+        if(mat instanceof SparseMatrix) return ((SparseMatrix)mat).leftMulInto(this, dst);
+        dst.luCache = null;
+        dst.cholCache = null;
+        Gemm.gemm(1.0, this, mat, 0.0, dst);
+        return dst;
+    }
+    /**
+     * 自身をその場で {@code alpha} * {@code a} * {@code b} + {@code beta} * {@code this} に書き換える（BLAS の GEMM）. 
+     * 一時的な行列は作らず, 結果の行列を一度舐めるだけで計算する. 
+     * {@code this} は {@code a} や {@code b} と同じ行列であってはならない. 
+     * @param alpha 積に掛ける係数
+     * @param a 左から掛ける行列
+     * @param b 右から掛ける行列
+     * @param beta 自身に掛ける係数
+     * @return {@code this}. サイズ違いなどで計算不可能な場合には {@code null}. 
+     */
+    Matrix gemm(double alpha, Matrix a, Matrix b, double beta) {
+        if(a == null || b == null || a.n != b.m || a.m != m || b.n != n) return null;
+        if(a == this || b == this) throw new IllegalArgumentException("gemm: operands must not alias the result");
+        luCache = null;
+        cholCache = null;
+        Gemm.gemm(alpha, a, b, beta, this);
+        return this;
+    }
+    /**
+     * 自身をその場で {@code this} + {@code alpha} * {@code x} に書き換える（BLAS の AXPY）. 
+     * @param alpha {@code x} に掛ける係数
+     * @param x 足し込む行列
+     * @return {@code this}. サイズ違いなどで計算不可能な場合には {@code null}. 
+     */
+    Matrix axpy(double alpha, Matrix x) {
+        return axpyInto(alpha, x, this);
+    }
+    
+    /**
+     * 与えられたサイズの単位行列を新たに生成して返す. 
+     * @param n 生成する行列のサイズ
+     * @return {@code n}×{@code n} の単位行列
+     */
+    public static Matrix eye(int n) {
+        Matrix ret = new Matrix(n, n); // これは nxn のゼロ行列
+        for(int i = 0; i < n; i++) {
+            ret.set(i, i, 1);  // 対角に 1 を入れる
+        }
+        return ret;
+    }
+
+    /**
+     * 自身の LU 分解を返す. 
+     * 一度分解したらキャッシュしておき, 自身が書き換えられるまでは同じものを返す. 
+     * @return LU 分解. 正方行列でない場合には {@code null}. 
+     */
+    LUDecomposition lu() {
+        if(this.m != this.n) return null;
+        if(luCache == null) luCache = new LUDecomposition(this);
+        return luCache;
+    }
+
+    /**
+     * 自身が対称正定値行列ならそのコレスキー分解を返す. 
+     * 一度分解したらキャッシュしておき, 自身が書き換えられるまでは同じものを返す. 
+     * @return コレスキー分解. 正方行列でない場合, 対称でない場合, 正定値でない場合には {@code null}. 
+     */
+    CholeskyDecomposition chol() {
+        if(this.m != this.n) return null;
+        if(cholCache == null) cholCache = new CholeskyDecomposition(this);
+        return cholCache.spd ? cholCache : null;
+    }
+
+    /**
+     * 現在の結果である行列の逆行列を新たに生成して返す.
+     * 対称正定値行列ならコレスキー分解から, そうでなければ LU 分解から求める. 
+     * @return {@code this}の逆行列となる行列．
+     * 正方行列でない場合や, 正則でない場合には {@code null}. 
+     */
+    Matrix inv(){
+	// 正方行列でないときには null を返す. 
+        if(this.m != this.n) return null;
+	CholeskyDecomposition c = chol();
+	if(c != null) return c.inverse();
+	return lu().inverse();
+    }
+
+     /**
+     * 現在の結果である行列の上三角行列を新たに生成して返す.
+     * LU 分解（部分ピボット選択付き） {@code PA = LU} の U を返す. 
+     * 各列で絶対値が最大の要素を軸に選ぶので, 行を入れ替えずに消去できる行列でも
+     * 上から順に掃き出した上三角行列とは異なることがある. 
+     * @return {@code this}の上三角行列となる行列．
+     * 正方行列でない場合には {@code null}. 
+     */
+    Matrix umat(){
+	// 正方行列でないときには null を返す. 
+        if(this.m != this.n) return null;
+	return lu().u();
+    }
+
+    /**
+     * 現在の結果である行列の下三角行列を新たに生成して返す.
+     * LU 分解（部分ピボット選択付き） {@code PA = LU} の, 対角が 1 の L を返す. 
+     * {@code pmat()}, {@code lmat()}, {@code umat()} について {@code pmat() * this = lmat() * umat()} が成り立つ. 
+     * @return {@code this}の下三角行列となる行列．
+     * 正方行列でない場合には {@code null}. 
+     */
+    Matrix lmat(){
+	//正方行列でないときには null を返す. 
+        if(this.m != this.n) return null;
+	return lu().l();
+    }
+
+    /**
+     * LU 分解 {@code PA = LU} の行の入れ替えを表す置換行列 P を新たに生成して返す.
+     * @return 置換行列 P. 
+     * 正方行列でない場合には {@code null}. 
+     */
+    Matrix pmat(){
+        if(this.m != this.n) return null;
+	return lu().p();
+    }
+
+    /**
+     * 現在の結果である行列の行列式の値を返す.
+     * @return {@code this}の行列式の値．
+     * 正方行列でない場合には {@code 0}. 
+     */
+    double determ(){
+	// 正方行列でないときには 0 を返す. 
+        if(this.m != this.n) return 0;
+	//上三角行列の対角成分の積（に行の入れ替えの符号を掛けたもの）が行列式の値であることを使っている
+	return lu().det();
+    }
+
+    /**
+     * 自身を係数行列とする連立方程式 {@code this * X = b} の解を返す. 
+     * 逆行列は作らず, 対称正定値行列ならコレスキー分解から, そうでなければ LU 分解から, 前進代入と後退代入で求める. 
+     * @param b 右辺の行列（各列がそれぞれの右辺）
+     * @return 解 {@code X}. 正方行列でない場合や, 正則でない場合, サイズが合わない場合には {@code null}. 
+     */
+    Matrix solve(Matrix b) {
+        if(this.m != this.n) return null;
+        CholeskyDecomposition c = chol();
+        if(c != null) return c.solve(b);
+        return lu().solve(b);
+    }
+
+    /**
+     * {@code LinearOperator} としての次元（列数）を返す. 
+     * @return 列数
+     */
+    public int dim() {
+        return n;
+    }
+
+    /**
+     * {@code y = this * x} を計算する. ヒープ上の行列では GEMV カーネルを使う. 
+     * @param x 長さ {@code n} の入力ベクトル
+     * @param y 長さ {@code m} の出力ベクトル
+     */
+    public void apply(double [] x, double [] y) {
+        if(onHeap()) {
+            Gemv.gemv(1.0, vals, off, rs, cs, m, n, x, 0, 1, 0.0, y, 0, 1);
+            return;
+        }
+        for(int i = 0; i < m; i++) {
+            double d = 0;
+            for(int j = 0; j < n; j++) d += get(i, j) * x[j];
+            y[i] = d;
+        }
+    }
+
+    /**
+     * 対称行列かどうかを返す. 
+     * @return 正方で, 丸め誤差の範囲で対称なら {@code true}
+     */
+    public boolean symmetric() {
+        return EigenDecomposition.isSymmetric(this);
+    }
+
+    /**
+     * 絶対値の大きい方から {@code k} 個の固有値を並べた（ブロック）対角行列を返す. 
+     * 陰的リスタート付きの Arnoldi 法（対称行列なら Lanczos 法）で, 行列ベクトル積だけを使って求める. 
+     * @param k 求める固有値の数
+     * @return 固有値を並べた行列（{@code k} 番目が共役複素数の対の片方なら {@code k+1} 次）. 
+     *         正方行列でない場合, {@code k} が範囲外の場合, 収束しなかった場合には {@code null}. 
+     */
+    Matrix eigs(int k) {
+        if(this.m != this.n || k < 1 || k > n) return null;
+        KrylovEigenSolver e = new KrylovEigenSolver(this, k);
+        return e.converged ? e.diag() : null;
+    }
+
+    /**
+     * 自身の QR 分解を返す. 
+     * @return QR 分解. 
+     */
+    QRDecomposition qr() {
+        return new QRDecomposition(this);
+    }
+
+    /**
+     * 自身を係数行列とする最小二乗問題 {@code min |this * X - b|} の解を返す. 
+     * 正規方程式 {@code A^T A X = A^T b} は作らず（条件数が 2 乗になるので）, QR 分解から求める. 
+     * @param b 右辺の行列（各列がそれぞれの右辺）
+     * @return 解 {@code X}. 横長の行列の場合や, 列が一次従属の場合, サイズが合わない場合には {@code null}. 
+     */
+    Matrix lsq(Matrix b) {
+        return qr().solve(b);
+    }
+
+    /**
+     * 自身の特異値分解を返す. 
+     * @param top 求める特異値の数（大きい方から）. 0 以下ならすべて求める
+     * @param vectors 特異ベクトルも求めるなら {@code true}
+     * @return 特異値分解. 
+     */
+    SingularValueDecomposition svd(int top, boolean vectors) {
+        return new SingularValueDecomposition(this, top, vectors);
+    }
+
+    /**
+     * 乱択アルゴリズムによる上位 {@code k} 個の特異値分解を返す. 
+     * @param k 求める特異値の数
+     * @param q 冪乗反復の回数
+     * @param seed 乱数の種
+     * @param vectors 特異ベクトルも求めるなら {@code true}
+     * @return 近似的な特異値分解. 
+     */
+    SingularValueDecomposition rsvd(int k, int q, long seed, boolean vectors) {
+        return SingularValueDecomposition.randomized(this, k, q, seed, vectors);
+    }
+
+    /**
+     * 擬似逆行列（Moore-Penrose 逆行列）を新たに生成して返す. 
+     * 特異値分解から求めるので, 正方でない行列や正則でない行列にも使える. 
+     * @return {@code n}×{@code m} の擬似逆行列. 特異値分解が収束しなかった場合には {@code null}. 
+     */
+    Matrix pinv() {
+        SingularValueDecomposition d = svd(0, true);
+        if(!d.converged) return null;
+        return d.pinv();
+    }
+
+    /**
+     * 自身を与えられた行列で右から割った結果 {@code this * mat^-1} を新たに生成して返す. 
+     * 逆行列は作らず, {@code X * mat = this} を {@code mat} のコレスキー分解（対称正定値のとき）か LU 分解から解く. 
+     * @param mat 割る行列
+     * @return {@code this * mat^-1} の結果となる行列. 
+     *         {@code mat} が正方行列でない場合や, 正則でない場合, サイズが合わない場合には {@code null}. 
+     */
+    Matrix rdiv(Matrix mat) {
+        if(mat == null || mat.m != mat.n) return null;
+        CholeskyDecomposition c = mat.chol();
+        if(c != null) return c.solveRight(this);
+        return mat.lu().solveRight(this);
+    }
+
+     /**
+     * 現在の行列が正則でないときに {@code true} を返す. 
+     * @return 正方行列でないか, LU 分解でピボットが０になった場合 {@code true}. 
+     */
+    boolean nonregular() {
+        return this.m != this.n || lu().singular;
+    }
+
+    /**
+     * 現在の結果である行列を固有値分解しできた対角行列を返す.
+     * 共役複素数の固有値の対 {@code a±bi} は 2×2 のブロック {@code [[a, b], [-b, a]]} として置く. 
+     * @return {@code this}を固有値分解してできた（ブロック）対角行列．
+     * 正方行列でない場合や, QR 反復が収束しなかった場合には {@code null}. 
+     */
+    Matrix eigen(){
+	// 正方行列でないときには null を返す. 
+        if(this.m != this.n) return null;
+	// 固有値を求めてブロック対角行列にする. 対称行列なら対称行列用の解法が自動的に選ばれる
+	EigenDecomposition e = new EigenDecomposition(this);
+	if(!e.converged) return null;
+	return e.diag();
+    }
+    
+    /**
+     * 「ブロック」から与えられたサイズの単位行列を新たに生成して返す. 
+     * @param block 電卓から受け取る「ブロック」.
+     * @return {@code n}×{@code} の単位行列. 行のサイズの食い違いなどで生成に失敗したら {@code null}
+     */
+    public static Matrix read(final List<String> block) {
+        try {
+            int m = block.size() - 1;  // 一行目は行列の中身ではないので無視して行数を決める
+            int n = -1;                // 列数は, 最初の行を見て決める
+            Matrix ret = null;
+            for(int i = 0; i < m; i++) {
+                StringTokenizer st = new StringTokenizer(block.get(i+1));
+                ArrayList<String> vs = new ArrayList<String>();
+                while(st.hasMoreTokens()) vs.add(st.nextToken());
+                if(n < 0) {  // 最初の行でサイズ確定 → 決定したサイズの行列をここで生成
+                    n = vs.size();
+                    ret = new Matrix(m, n);
+                } else if(n != vs.size()) {// 行の間でサイズの食い違いがあったら null
+                    return null;
+                }
+                // 要素をコピー
+                int j = 0;
+                for(String s : vs) {
+                    ret.set(i, j++, Double.parseDouble(s));
+                }
+            }
+            return ret;
+        } catch(Exception e) { // なにか変な例外が生じた際にも生成失敗
+        }
+        return null;
+    }
+    /**
+     * 行列を表す文字列を返す. 
+     * 例えば次のような文字列となる. 
+     * <p><blockquote><pre>{@code
+     * [   2.000    3.000    4.000]
+     * [   5.000    6.000    7.000]
+     * }</pre></blockquote><p>
+     * （各行の開始と終わりに [ と ] が置かれ, 各要素は固定幅（8.3f）で表示. 
+     */
+    public String toString() {
+        StringBuffer sb = new StringBuffer();
+        for(int i = 0; i < m; i++) {
+            sb.append("[");
+            for(int j = 0; j < n; j++) {
+                if(j > 0) sb.append(" ");
+                sb.append(String.format("%1$8.3f", get(i, j)));
+            }
+            sb.append("]");
+            if(i < m - 1) sb.append("\n");
+        }
+        return sb.toString();
+    }
+}
+
+/**
+ * 圧縮行格納（CSR）形式の疎行列. 
+ * 0 でない要素だけを, 行ごとに列番号の昇順で {@code colIdx} と {@code data} に並べ, 
+ * {@code i} 行目の要素が {@code rowPtr[i]}..{@code rowPtr[i+1]-1} 番目にあることを {@code rowPtr} で表す. <br />
+ * {@code Matrix} を継承しているので電卓の「結果」や変数の値として保持でき, 
+ * 要素を直接読むだけの {@code Matrix} の演算（{@code get} を使うもの）はそのまま使える. 
+ * 加減算, スカラー倍, 乗算, 行列ベクトル積は 0 でない要素だけを舐める. 
+ * 演算の結果の非零要素の割合が {@code densifyThreshold} を超えたら普通の（密な）行列に変換する. <br />
+ * 要素の書き換え（{@code set}）はできない. 
+ */
+class SparseMatrix extends Matrix {
+    /**
+     * 非零要素の割合がこれを超えた演算結果は密な行列に変換する. 
+     */
+    static double densifyThreshold = 0.25;
+    /**
+     * 各行の最初の要素の位置（長さ {@code m+1}）. 
+     */
+    final int [] rowPtr;
+    /**
+     * 各要素の列番号. 
+     */
+    final int [] colIdx;
+    /**
+     * 各要素の値. 
+     */
+    final double [] data;
+
+    /**
+     * CSR 形式の配列をそのまま使うコンストラクタ. 各行の列番号は昇順で重複がないこと. 
+     * @param m 行数
+     * @param n 列数
+     * @param rowPtr 各行の最初の要素の位置
+     * @param colIdx 各要素の列番号
+     * @param data 各要素の値
+     */
+    SparseMatrix(int m, int n, int [] rowPtr, int [] colIdx, double [] data) {
+        super(null, null, 0, m, n, 0, 0, false);
+        this.rowPtr = rowPtr;
+        this.colIdx = colIdx;
+        this.data = data;
+    }
+
+    /**
+     * 非零要素の数を返す. 
+     * @return 非零要素の数
+     */
+    int nnz() {
+        return rowPtr[m];
+    }
+
+    /**
+     * (行, 列, 値) の組の並びから疎行列を作る. 
+     * 同じ位置の組は足し合わせ, 値が 0 の要素は持たない. 
+     * @param m 行数
+     * @param n 列数
+     * @param ri 行番号
+     * @param ci 列番号
+     * @param v 値
+     * @param cnt 組の数
+     * @return 疎行列. 番号が範囲外なら {@code null}
+     */
+    static SparseMatrix fromTriplets(int m, int n, int [] ri, int [] ci, double [] v, int cnt) {
+        // 行ごとに数えて振り分ける（計数ソート）
+        int [] ptr = new int[m + 1];
+        for(int p = 0; p < cnt; p++) {
+            if(ri[p] < 0 || ri[p] >= m || ci[p] < 0 || ci[p] >= n) return null;
+            ptr[ri[p] + 1]++;
+        }
+        for(int i = 0; i < m; i++) ptr[i + 1] += ptr[i];
+        int [] pos = Arrays.copyOf(ptr, m);
+        int [] cs = new int[cnt];
+        double [] vs = new double[cnt];
+        for(int p = 0; p < cnt; p++) {
+            int q = pos[ri[p]]++;
+            cs[q] = ci[p];
+            vs[q] = v[p];
+        }
+        // 行の中を列番号で並べ, 同じ列をまとめる. 作業用の密な行（列ごとの位置）を使う
+        int [] rp = new int[m + 1];
+        int [] mark = new int[n];
+        Arrays.fill(mark, -1);
+        int [] oc = new int[cnt];
+        double [] ov = new double[cnt];
+        int nz = 0;
+        for(int i = 0; i < m; i++) {
+            int start = nz;
+            for(int p = ptr[i]; p < ptr[i + 1]; p++) {
+                int j = cs[p];
+                if(mark[j] >= start && mark[j] < nz && oc[mark[j]] == j) { // 詰めた後の古い位置は列番号で見分ける
+                    ov[mark[j]] += vs[p];
+                } else {
+                    mark[j] = nz;
+                    oc[nz] = j;
+                    ov[nz] = vs[p];
+                    nz++;
+                }
+            }
+            sortRow(oc, ov, start, nz);
+            // 0 になった要素を詰める
+            int w = start;
+            for(int p = start; p < nz; p++) {
+                if(ov[p] != 0) {
+                    oc[w] = oc[p];
+                    ov[w] = ov[p];
+                    w++;
+                }
+            }
+            nz = w;
+            rp[i + 1] = nz;
+        }
+        return new SparseMatrix(m, n, rp, Arrays.copyOf(oc, nz), Arrays.copyOf(ov, nz));
+    }
+
+    /**
+     * 行の中の要素を列番号の昇順に並べる（挿入ソート. 行の中の要素は少ないので）. 
+     */
+    static void sortRow(int [] c, double [] v, int from, int to) {
+        for(int p = from + 1; p < to; p++) {
+            int cj = c[p];
+            double vj = v[p];
+            int q = p - 1;
+            while(q >= from && c[q] > cj) {
+                c[q + 1] = c[q];
+                v[q + 1] = v[q];
+                q--;
+            }
+            c[q + 1] = cj;
+            v[q + 1] = vj;
+        }
+    }
+
+    /**
+     * 密な行列を疎行列に変換する. 
+     * @param mat 行列
+     * @return 0 でない要素だけを持つ疎行列
+     */
+    static SparseMatrix fromDense(Matrix mat) {
+        if(mat instanceof SparseMatrix) return (SparseMatrix)mat;
+        int [] rp = new int[mat.m + 1];
+        int nz = 0;
+        for(int i = 0; i < mat.m; i++) {
+            for(int j = 0; j < mat.n; j++) {
+                if(mat.get(i, j) != 0) nz++;
+            }
+            rp[i + 1] = nz;
+        }
+        int [] ci = new int[nz];
+        double [] v = new double[nz];
+        int p = 0;
+        for(int i = 0; i < mat.m; i++) {
+            for(int j = 0; j < mat.n; j++) {
+                double x = mat.get(i, j);
+                if(x != 0) {
+                    ci[p] = j;
+                    v[p++] = x;
+                }
+            }
+        }
+        return new SparseMatrix(mat.m, mat.n, rp, ci, v);
+    }
+
+    /**
+     * 密な行列に変換する. 
+     * @return 同じ要素を持つ行優先の行列
+     */
+    Matrix toDense() {
+        Matrix ret = new Matrix(m, n);
+        scatterInto(1, ret);
+        return ret;
+    }
+
+    /**
+     * 非零要素の割合がしきい値を超えていれば密な行列に変換する. 
+     * @return 疎なら {@code this}, そうでなければ密な行列
+     */
+    Matrix densifyIfNeeded() {
+        return nnz() > densifyThreshold * m * n ? toDense() : this;
+    }
+
+    /**
+     * 非零要素の {@code a} 倍を密な行列 {@code dst} に足し込む. 
+     * @param a 係数
+     * @param dst 足し込む先の行列（サイズは同じ）
+     */
+    void scatterInto(double a, Matrix dst) {
+        for(int i = 0; i < m; i++) {
+            for(int p = rowPtr[i]; p < rowPtr[i + 1]; p++) {
+                int j = colIdx[p];
+                dst.set(i, j, dst.get(i, j) + a * data[p]);
+            }
+        }
+    }
+
+    double get(int i, int j) {
+        int p = Arrays.binarySearch(colIdx, rowPtr[i], rowPtr[i + 1], j);
+        return p >= 0 ? data[p] : 0.0;
+    }
+
+    void set(int i, int j, double v) {
+        throw new UnsupportedOperationException("SparseMatrix is read-only");
+    }
+
+    /**
+     * 疎行列はその場では書き換えない. 
+     * @return 常に {@code false}
+     */
+    boolean reusable() {
+        return false;
+    }
+
+    /**
+     * 転置行列を新たな疎行列として返す（ビューではない）. 
+     * @return {@code n}×{@code m} の疎行列
+     */
+    Matrix t() {
+        int [] rp = new int[n + 1];
+        for(int p = 0; p < nnz(); p++) rp[colIdx[p] + 1]++;
+        for(int j = 0; j < n; j++) rp[j + 1] += rp[j];
+        int [] pos = Arrays.copyOf(rp, n);
+        int [] ci = new int[nnz()];
+        double [] v = new double[nnz()];
+        for(int i = 0; i < m; i++) {
+            for(int p = rowPtr[i]; p < rowPtr[i + 1]; p++) {
+                int q = pos[colIdx[p]]++;
+                ci[q] = i;
+                v[q] = data[p];
+            }
+        }
+        return new SparseMatrix(n, m, rp, ci, v);
+    }
+
+    /**
+     * 部分行列を新たな疎行列として返す（ビューではない）.
+     * 密な行列には変換せず, 各行の列番号の範囲を二分探索で求めて非零要素だけを写す.
+     * @return 部分行列となる疎行列. 範囲がおかしい場合には {@code null}.
+     */
+    Matrix slice(int r0, int r1, int c0, int c1) {
+        if(r0 < 0 || r1 > m || r0 >= r1 || c0 < 0 || c1 > n || c0 >= c1) return null;
+        int [] from = new int[r1 - r0], to = new int[r1 - r0];
+        int [] rp = new int[r1 - r0 + 1];
+        for(int i = r0; i < r1; i++) {
+            from[i - r0] = lowerBound(rowPtr[i], rowPtr[i + 1], c0);
+            to[i - r0] = lowerBound(from[i - r0], rowPtr[i + 1], c1);
+            rp[i - r0 + 1] = rp[i - r0] + to[i - r0] - from[i - r0];
+        }
+        int [] ci = new int[rp[r1 - r0]];
+        double [] v = new double[rp[r1 - r0]];
+        for(int i = 0; i < r1 - r0; i++) {
+            for(int p = from[i], q = rp[i]; p < to[i]; p++, q++) {
+                ci[q] = colIdx[p] - c0;
+                v[q] = data[p];
+            }
+        }
+        return new SparseMatrix(r1 - r0, c1 - c0, rp, ci, v);
+    }
+
+    /**
+     * {@code colIdx[from..to-1]} の中で列番号が {@code j} 以上になる最初の位置を返す.
+     */
+    int lowerBound(int from, int to, int j) {
+        while(from < to) {
+            int mid = (from + to) >>> 1;
+            if(colIdx[mid] < j) from = mid + 1;
+            else to = mid;
+        }
+        return from;
+    }
+
+    Matrix toOffHeap() {
+        return toDense().toOffHeap();
+    }
+
+    Matrix add(Matrix mat) {
+        if(mat == null || sizeMismatch(mat)) return null;
+        return (mat instanceof SparseMatrix) ? plus(1, (SparseMatrix)mat) : axpyInto(1, mat, new Matrix(m, n));
+    }
+
+    Matrix sub(Matrix mat) {
+        if(mat == null || sizeMismatch(mat)) return null;
+        return (mat instanceof SparseMatrix) ? plus(-1, (SparseMatrix)mat) : axpyInto(-1, mat, new Matrix(m, n));
+    }
+
+    /**
+     * {@code this} + {@code a} * {@code mat} を密な行列 {@code dst} に書き込む. 
+     */
+    Matrix axpyInto(double a, Matrix mat, Matrix dst) {
+        if(mat == null || dst == null || sizeMismatch(mat) || sizeMismatch(dst)) return null;
+        if(mat instanceof SparseMatrix) {
+            dst.copy(plus(a, (SparseMatrix)mat));
+            return dst;
+        }
+        // 密な行列の場合と同じく要素ごとに this + a * mat を計算する（構造上の 0 も 0.0 として足す）
+        dst.luCache = null;
+        dst.cholCache = null;
+        for(int i = 0; i < m; i++) {
+            int p = rowPtr[i];
+            for(int j = 0; j < n; j++) {
+                double x = 0.0;
+                if(p < rowPtr[i + 1] && colIdx[p] == j) x = data[p++];
+                dst.set(i, j, x + a * mat.get(i, j));
+            }
+        }
+        return dst;
+    }
+
+    /**
+     * 疎行列どうしの {@code this} + {@code a} * {@code mat} を返す. 
+     * 各行の列番号の並びを併合するので, 非零要素の数に比例する時間で済む. 
+     * @param a 係数
+     * @param mat 足す疎行列（サイズは同じ）
+     * @return 結果の疎行列. 非零要素の割合がしきい値を超えたら密な行列
+     */
+    Matrix plus(double a, SparseMatrix mat) {
+        int [] rp = new int[m + 1];
+        int [] ci = new int[nnz() + mat.nnz()];
+        double [] v = new double[ci.length];
+        int nz = 0;
+        for(int i = 0; i < m; i++) {
+            int p = rowPtr[i], pe = rowPtr[i + 1];
+            int q = mat.rowPtr[i], qe = mat.rowPtr[i + 1];
+            while(p < pe || q < qe) {
+                int jp = p < pe ? colIdx[p] : Integer.MAX_VALUE;
+                int jq = q < qe ? mat.colIdx[q] : Integer.MAX_VALUE;
+                double x;
+                int j;
+                if(jp == jq) {
+                    j = jp;
+                    x = data[p++] + a * mat.data[q++];
+                } else if(jp < jq) {
+                    j = jp;
+                    x = data[p++];
+                } else {
+                    j = jq;
+                    x = a * mat.data[q++];
+                }
+                if(x != 0) {
+                    ci[nz] = j;
+                    v[nz++] = x;
+                }
+            }
+            rp[i + 1] = nz;
+        }
+        return new SparseMatrix(m, n, rp, Arrays.copyOf(ci, nz), Arrays.copyOf(v, nz)).densifyIfNeeded();
+    }
+
+    Matrix smul(double a) {
+        double [] v = new double[nnz()];
+        for(int p = 0; p < v.length; p++) v[p] = a * data[p];
+        return new SparseMatrix(m, n, rowPtr, colIdx, v);
+    }
+
+    Matrix scaleInPlace(double a) {
+        for(int p = 0; p < nnz(); p++) data[p] *= a;
+        return this;
+    }
+
+    /**
+     * 疎行列と行列の積を返す. 
+     * 相手が疎行列なら結果も疎行列（非零要素の割合がしきい値を超えたら密な行列）, 
+     * 密な行列なら結果も密な行列になる. 
+     */
+    Matrix mul(Matrix mat) {
+        if(mat == null || this.n != mat.m) return null;
+        if(mat instanceof SparseMatrix) return mulSparse((SparseMatrix)mat);
+        return mulInto(mat, new Matrix(m, mat.n));
+    }
+
+    /**
+     * 疎行列と密な行列の積を {@code dst} に書き込む. 
+     * 各行について, 非零要素 {@code a_ik} ごとに相手の {@code k} 行目の {@code a_ik} 倍を足し込む. 
+     */
+    Matrix mulInto(Matrix mat, Matrix dst) {
+        if(mat == null || dst == null || this.n != mat.m || dst.m != this.m || dst.n != mat.n) return null;
+        if(mat instanceof SparseMatrix) {
+            dst.copy(mulSparse((SparseMatrix)mat));
+            return dst;
+        }
+        clear(dst);
+        SparseKernels.spmm(this, mat, dst);
+        return dst;
+    }
+
+    /**
+     * 密な行列と疎行列の積 {@code mat * this} を {@code dst} に書き込む. 
+     * 各行について, 相手の {@code (i, k)} 要素ごとに自身の {@code k} 行目の非零要素を足し込む. 
+     * @param mat 左から掛ける密な行列
+     * @param dst 結果を書き込む {@code mat.m}×{@code n} の行列
+     * @return {@code dst}
+     */
+    Matrix leftMulInto(Matrix mat, Matrix dst) {
+        clear(dst);
+        SparseKernels.dmsp(mat, this, dst);
+        return dst;
+    }
+
+    /**
+     * 行列の要素をすべて 0 にする. 
+     */
+    static void clear(Matrix dst) {
+        dst.luCache = null;
+        dst.cholCache = null;
+        if(dst.onHeap() && dst.contiguous()) {
+            Arrays.fill(dst.vals, dst.off, dst.off + dst.m * dst.n, 0.0);
+            return;
+        }
+        for(int i = 0; i < dst.m; i++) {
+            for(int j = 0; j < dst.n; j++) dst.set(i, j, 0.0);
+        }
+    }
+
+    /**
+     * ヒープ上にあって, 各行の要素が連続して並んでいるときに {@code true} を返す. 
+     */
+    static boolean rowMajor(Matrix mat) {
+        return mat.onHeap() && (mat.cs == 1 || mat.n == 1);
+    }
+
+    /**
+     * 疎行列どうしの積を返す. 
+     * 計算は {@code SparseKernels#spgemm} に任せる. 
+     * @param mat 右から掛ける疎行列
+     * @return 結果の疎行列. 非零要素の割合がしきい値を超えたら密な行列
+     */
+    Matrix mulSparse(SparseMatrix mat) {
+        return SparseKernels.spgemm(this, mat).densifyIfNeeded();
+    }
+
+    /**
+     * {@code y = this * x} を非零要素だけを舐めて計算する. 
+     */
+    public void apply(double [] x, double [] y) {
+        SparseKernels.spmv(this, x, y);
+    }
+
+    /**
+     * 対称かどうかを, 転置と非零要素を比べて調べる. 
+     */
+    public boolean symmetric() {
+        if(m != n) return false;
+        SparseMatrix t = (SparseMatrix)t();
+        if(!Arrays.equals(rowPtr, t.rowPtr) || !Arrays.equals(colIdx, t.colIdx)) return false;
+        for(int p = 0; p < nnz(); p++) {
+            double a = data[p], b = t.data[p];
+            if(Math.abs(a - b) > 1e-12 * Math.max(Math.abs(a), Math.abs(b))) return false;
+        }
+        return true;
+    }
+
+    /**
+     * 小さな疎行列は密な行列と同じ形で, 大きな疎行列は非零要素だけを {@code (i, j) v} の形で表す文字列を返す. 
+     */
+    public String toString() {
+        if((long)m * n <= 400) return super.toString();
+        StringBuffer sb = new StringBuffer();
+        sb.append(String.format("sparse %d x %d, nnz = %d", m, n, nnz()));
+        int shown = 0;
+        for(int i = 0; i < m && shown < 20; i++) {
+            for(int p = rowPtr[i]; p < rowPtr[i + 1] && shown < 20; p++, shown++) {
+                sb.append(String.format("\n(%d, %d) %8.3f", i, colIdx[p], data[p]));
+            }
+        }
+        if(shown < nnz()) sb.append("\n...");
+        return sb.toString();
+    }
+}
+
+/**
+ * 疎行列の乗算カーネル. 
+ * 疎行列どうしの積（Gustavson 法）, 疎行列と密な行列の積, 密な行列と疎行列の積, 行列ベクトル積を, 
+ * 結果の行ごとに独立に計算する. 演算量が大きいときは行の区間に分けて {@code MatrixPool} で並列に実行する（{@code SparseTask}）. <br />
+ * 疎行列どうしの積は, まず各行の非零要素の数だけを数え（記号的な段階）, 
+ * 結果の配列を確保してから各行の値を書き込む（数値的な段階）ので, 行ごとの書き込み先が重ならない. 
+ * どちらの段階もスレッドごとの作業用の行（{@code SparseAccumulator}）に足し込む. 
+ */
+class SparseKernels {
+    /**
+     * 疎行列どうしの積 {@code a * b} を返す. 
+     * 仕事の量は非零要素どうしの積の回数に比例し, 行列のサイズには（行数のぶんを除いて）よらない. 
+     * @param a 左から掛ける疎行列
+     * @param b 右から掛ける疎行列
+     * @return 結果の疎行列. 打ち消し合って 0 になった要素は除く. 
+     */
+    static SparseMatrix spgemm(final SparseMatrix a, final SparseMatrix b) {
+        final int m = a.m;
+        // 各行の積和の回数を累積しておき, 仕事の量で行を分ける
+        long [] work = new long[m + 1];
+        for(int i = 0; i < m; i++) {
+            long w = 1;
+            for(int p = a.rowPtr[i]; p < a.rowPtr[i + 1]; p++) {
+                int k = a.colIdx[p];
+                w += b.rowPtr[k + 1] - b.rowPtr[k];
+            }
+            work[i + 1] = work[i] + w;
+        }
+        // 記号的な段階: 各行の非零要素の数
+        final int [] rp = new int[m + 1];
+        SparseTask.rows(work, (i0, i1) -> symbolic(a, b, rp, i0, i1));
+        for(int i = 0; i < m; i++) rp[i + 1] += rp[i];
+        // 数値的な段階: 各行の値
+        final int [] ci = new int[rp[m]];
+        final double [] v = new double[rp[m]];
+        SparseTask.rows(work, (i0, i1) -> numeric(a, b, rp, ci, v, i0, i1));
+        return compact(m, b.n, rp, ci, v);
+    }
+
+    /**
+     * {@code i0}..{@code i1-1} 行目の結果の非零要素の数を {@code rp[i+1]} に書き込む. 
+     */
+    static void symbolic(SparseMatrix a, SparseMatrix b, int [] rp, int i0, int i1) {
+        SparseAccumulator acc = SparseAccumulator.local(b.n);
+        for(int i = i0; i < i1; i++) {
+            acc.next();
+            for(int p = a.rowPtr[i]; p < a.rowPtr[i + 1]; p++) {
+                int k = a.colIdx[p];
+                for(int q = b.rowPtr[k]; q < b.rowPtr[k + 1]; q++) acc.touch(b.colIdx[q]);
+            }
+            rp[i + 1] = acc.cnt;
+        }
+    }
+
+    /**
+     * {@code i0}..{@code i1-1} 行目の結果の値を, 列番号の昇順で {@code ci} と {@code v} の {@code rp[i]} 番目から書き込む. 
+     */
+    static void numeric(SparseMatrix a, SparseMatrix b, int [] rp, int [] ci, double [] v, int i0, int i1) {
+        SparseAccumulator acc = SparseAccumulator.local(b.n);
+        for(int i = i0; i < i1; i++) {
+            acc.next();
+            for(int p = a.rowPtr[i]; p < a.rowPtr[i + 1]; p++) {
+                double x = a.data[p];
+                int k = a.colIdx[p];
+                for(int q = b.rowPtr[k]; q < b.rowPtr[k + 1]; q++) acc.add(b.colIdx[q], x * b.data[q]);
+            }
+            Arrays.sort(acc.cols, 0, acc.cnt);
+            int o = rp[i];
+            for(int c = 0; c < acc.cnt; c++) {
+                int j = acc.cols[c];
+                ci[o + c] = j;
+                v[o + c] = acc.vals[j];
+            }
+        }
+    }
+
+    /**
+     * 値が 0 の要素を詰めた疎行列を返す. 0 の要素がなければ配列をそのまま使う. 
+     */
+    static SparseMatrix compact(int m, int n, int [] rp, int [] ci, double [] v) {
+        int zeros = 0;
+        for(double x : v) if(x == 0) zeros++;
+        if(zeros == 0) return new SparseMatrix(m, n, rp, ci, v);
+        int [] nrp = new int[m + 1];
+        int [] nci = new int[v.length - zeros];
+        double [] nv = new double[nci.length];
+        int nz = 0;
+        for(int i = 0; i < m; i++) {
+            for(int p = rp[i]; p < rp[i + 1]; p++) {
+                if(v[p] == 0) continue;
+                nci[nz] = ci[p];
+                nv[nz++] = v[p];
+            }
+            nrp[i + 1] = nz;
+        }
+        return new SparseMatrix(m, n, nrp, nci, nv);
+    }
+
+    /**
+     * 疎行列と密な行列の積 {@code a * b} を {@code dst} に書き込む. {@code dst} はあらかじめ 0 にしておくこと. 
+     */
+    static void spmm(final SparseMatrix a, final Matrix b, final Matrix dst) {
+        long [] work = new long[a.m + 1];
+        for(int i = 0; i <= a.m; i++) work[i] = ((long)a.rowPtr[i] + i) * b.n;
+        SparseTask.rows(work, (i0, i1) -> spmm(a, b, dst, i0, i1));
+    }
+
+    /**
+     * {@code a * b} の {@code i0}..{@code i1-1} 行目を {@code dst} に足し込む. 
+     * 各非零要素 {@code a_ik} ごとに {@code b} の {@code k} 行目の {@code a_ik} 倍を足す. 
+     */
+    static void spmm(SparseMatrix a, Matrix b, Matrix dst, int i0, int i1) {
+        boolean rows = SparseMatrix.rowMajor(b) && SparseMatrix.rowMajor(dst);
+        for(int i = i0; i < i1; i++) {
+            for(int p = a.rowPtr[i]; p < a.rowPtr[i + 1]; p++) {
+                double x = a.data[p];
+                int k = a.colIdx[p];
+                if(rows) {
+                    // 行が連続していれば行ごとの axpy
+                    Matrix.kernels.axpy(b.n, x, b.vals, b.idx(k, 0), dst.vals, dst.idx(i, 0));
+                    continue;
+                }
+                for(int j = 0; j < b.n; j++) {
+                    dst.set(i, j, dst.get(i, j) + x * b.get(k, j));
+                }
+            }
+        }
+    }
+
+    /**
+     * 密な行列と疎行列の積 {@code a * b} を {@code dst} に書き込む. {@code dst} はあらかじめ 0 にしておくこと. 
+     */
+    static void dmsp(final Matrix a, final SparseMatrix b, final Matrix dst) {
+        long [] work = new long[a.m + 1];
+        long w = (long)a.n + b.nnz();
+        for(int i = 0; i <= a.m; i++) work[i] = i * w;
+        SparseTask.rows(work, (i0, i1) -> dmsp(a, b, dst, i0, i1));
+    }
+
+    /**
+     * {@code a * b} の {@code i0}..{@code i1-1} 行目を {@code dst} に足し込む. 
+     * 各要素 {@code a_ik} ごとに {@code b} の {@code k} 行目の非零要素を足す. 
+     */
+    static void dmsp(Matrix a, SparseMatrix b, Matrix dst, int i0, int i1) {
+        boolean rows = SparseMatrix.rowMajor(dst);
+        for(int i = i0; i < i1; i++) {
+            int o = rows ? dst.idx(i, 0) : 0;
+            for(int k = 0; k < a.n; k++) {
+                double x = a.get(i, k);
+                if(x == 0) continue;
+                for(int p = b.rowPtr[k]; p < b.rowPtr[k + 1]; p++) {
+                    int j = b.colIdx[p];
+                    if(rows) dst.vals[o + j] += x * b.data[p];
+                    else dst.set(i, j, dst.get(i, j) + x * b.data[p]);
+                }
+            }
+        }
+    }
+
+    /**
+     * 行列ベクトル積 {@code y = a x} を計算する. 
+     */
+    static void spmv(final SparseMatrix a, final double [] x, final double [] y) {
+        long [] work = new long[a.m + 1];
+        for(int i = 0; i <= a.m; i++) work[i] = (long)a.rowPtr[i] + i;
+        SparseTask.rows(work, (i0, i1) -> {
+            for(int i = i0; i < i1; i++) {
+                double d = 0;
+                for(int p = a.rowPtr[i]; p < a.rowPtr[i + 1]; p++) d += a.data[p] * x[a.colIdx[p]];
+                y[i] = d;
+            }
+        });
+    }
+}
+
+/**
+ * 疎行列の積の結果の 1行ぶんを集める作業用の行. 
+ * 列ごとの値 {@code vals} と, その列が今の行で使われたかどうかの印 {@code mark} と, 
+ * 使われた列の一覧 {@code cols} からなる. 
+ * 行が変わるたびに印の番号 {@code stamp} を進めるので, 配列を 0 で埋め直さずに使い回せる. 
+ * スレッドごとにひとつずつ持つ. 
+ */
+class SparseAccumulator {
+    static final ThreadLocal<SparseAccumulator> work = new ThreadLocal<SparseAccumulator>() {
+        protected SparseAccumulator initialValue() {
+            return new SparseAccumulator();
+        }
+    };
+    double [] vals = new double[0];
+    int [] mark = new int[0];
+    int [] cols = new int[0];
+    int stamp = 0;
+    /**
+     * 今の行で使われた列の数. 
+     */
+    int cnt = 0;
+
+    /**
+     * このスレッドの作業用の行を, 少なくとも {@code n} 列ぶんの大きさにして返す. 
+     * @param n 列数
+     * @return 作業用の行
+     */
+    static SparseAccumulator local(int n) {
+        SparseAccumulator acc = work.get();
+        if(acc.vals.length < n) {
+            acc.vals = new double[n];
+            acc.mark = new int[n];
+            acc.cols = new int[n];
+            acc.stamp = 0;
+        }
+        return acc;
+    }
+
+    /**
+     * 次の行に移る. 
+     */
+    void next() {
+        if(++stamp == Integer.MAX_VALUE) {
+            Arrays.fill(mark, 0);
+            stamp = 1;
+        }
+        cnt = 0;
+    }
+
+    /**
+     * {@code j} 列目を使ったことにする. 初めてなら値を 0 にする. 
+     */
+    void touch(int j) {
+        if(mark[j] != stamp) {
+            mark[j] = stamp;
+            vals[j] = 0.0;
+            cols[cnt++] = j;
+        }
+    }
+
+    /**
+     * {@code j} 列目に {@code x} を足す. 
+     */
+    void add(int j, double x) {
+        touch(j);
+        vals[j] += x;
+    }
+}
+
+/**
+ * 疎行列の計算を, 行の区間に分けて並列に実行するための仕事. 
+ * 行ごとの仕事の量の累積 {@code work} を見て, 担当する区間の仕事の量が {@code MatrixPool.threshold} 以下になるまで, 
+ * 仕事の量が半分ずつになるところで区間を割る. 非零要素が一部の行に偏っていても仕事が均等に分かれる. 
+ */
+class SparseTask extends RecursiveAction {
+    private static final long serialVersionUID = 1L;
+    /**
+     * 行の区間ごとの計算. 
+     */
+    interface Body {
+        void run(int i0, int i1);
+    }
+    final long [] work;
+    final Body body;
+    final int i0, i1;
+    SparseTask(long [] work, Body body, int i0, int i1) {
+        this.work = work;
+        this.body = body;
+        this.i0 = i0;
+        this.i1 = i1;
+    }
+
+    /**
+     * すべての行について計算する. 仕事の量が大きければ並列に, そうでなければ逐次に実行する. 
+     * @param work 行ごとの仕事の量の累積（長さは行数 + 1）
+     * @param body 行の区間ごとの計算
+     */
+    static void rows(long [] work, Body body) {
+        int m = work.length - 1;
+        if(MatrixPool.worthSplitting(work[m] - work[0])) MatrixPool.invoke(new SparseTask(work, body, 0, m));
+        else body.run(0, m);
+    }
+
+    protected void compute() {
+        if(work[i1] - work[i0] <= MatrixPool.threshold || i1 - i0 <= 1) {
+            body.run(i0, i1);
+        } else {
+            // 仕事の量がちょうど半分になる行を探す
+            long half = (work[i0] + work[i1]) >>> 1;
+            int lo = i0 + 1, hi = i1 - 1;
+            while(lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if(work[mid] < half) lo = mid + 1;
+                else hi = mid;
+            }
+            invokeAll(new SparseTask(work, body, i0, lo), new SparseTask(work, body, lo, i1));
+        }
+    }
+}
+
+/**
+ * 帯行列. 下に {@code kl} 本, 上に {@code ku} 本の副対角線の外側がすべて 0 である {@code n}×{@code n} の行列. 
+ * LAPACK の帯格納形式にならい, 帯の中の要素だけを列優先の配列 {@code ab} に持つ. 
+ * (i, j) 要素は {@code ab[ku + i - j + j * (kl + ku + 1)]} にある（各列の帯の部分が連続して並ぶ）. <br />
+ * {@code Matrix} を継承しているので電卓の「結果」や変数の値として保持でき, 
+ * 要素を読むだけの {@code Matrix} の演算はそのまま使える. 
+ * 連立方程式, 逆行列, 行列式は帯の中だけで計算する LU 分解（{@code BandLUDecomposition}）から求めるので, 
+ * 帯幅を w として {@code O(n w^2)} で分解でき, 三重対角行列なら Thomas 法で {@code O(n)} で解ける. 
+ * コレスキー分解（{@code chol}）も帯の中だけで計算する. 
+ * それ以外の分解（{@code umat}, {@code eigen}, {@code svd} など）は要素を読んで密な行列と同じように計算する. <br />
+ * 帯の外の要素に 0 以外を書き込むことはできない. 
+ */
+class BandMatrix extends Matrix {
+    /**
+     * 入力された行列をこのサイズ以上のときだけ自動的に帯行列にする. 
+     */
+    static int autoSize = 64;
+    /**
+     * 要素数がこれ以下なら普通の行列と同じ形式で表示する. 
+     */
+    static final long PRINT_LIMIT = 1000L * 1000;
+    /**
+     * 下と上の帯幅. 
+     */
+    final int kl, ku;
+    /**
+     * 帯の中の要素（列優先の {@code (kl+ku+1)}×{@code n}）. 
+     */
+    final double [] ab;
+    /**
+     * 帯の LU 分解のキャッシュ. 要素が書き換えられたら捨てる. 
+     */
+    BandLUDecomposition bandCache = null;
+
+    /**
+     * 帯の中の要素の配列をそのまま使うコンストラクタ. 
+     * @param n サイズ
+     * @param kl 下の帯幅
+     * @param ku 上の帯幅
+     * @param ab 帯格納形式の配列（長さ {@code (kl+ku+1) n}）
+     */
+    BandMatrix(int n, int kl, int ku, double [] ab) {
+        super(null, null, 0, n, n, 0, 0, false);
+        this.kl = kl;
+        this.ku = ku;
+        this.ab = ab;
+    }
+
+    /**
+     * 0 で埋めた帯行列を作るコンストラクタ. 
+     */
+    BandMatrix(int n, int kl, int ku) {
+        this(n, kl, ku, new double[(kl + ku + 1) * n]);
+    }
+
+    /**
+     * 行列の下と上の帯幅を求める. 
+     * @param a 正方行列
+     * @return 0 でない要素の {@code i - j} の最大値と {@code j - i} の最大値の組
+     */
+    static int [] bandwidth(Matrix a) {
+        int kl = 0, ku = 0;
+        if(a instanceof BandMatrix) {
+            BandMatrix b = (BandMatrix)a;
+            return new int[] { b.kl, b.ku };
+        }
+        if(a instanceof SparseMatrix) {
+            SparseMatrix s = (SparseMatrix)a;
+            for(int i = 0; i < s.m; i++) {
+                if(s.rowPtr[i] == s.rowPtr[i + 1]) continue;
+                kl = Math.max(kl, i - s.colIdx[s.rowPtr[i]]);
+                ku = Math.max(ku, s.colIdx[s.rowPtr[i + 1] - 1] - i);
+            }
+            return new int[] { kl, ku };
+        }
+        for(int i = 0; i < a.m; i++) {
+            // 帯の外側だけを見ればよい
+            for(int j = 0; j < i - kl; j++) {
+                if(a.get(i, j) != 0) {
+                    kl = i - j;
+                    break;
+                }
+            }
+            for(int j = a.n - 1; j > i + ku; j--) {
+                if(a.get(i, j) != 0) {
+                    ku = j - i;
+                    break;
+                }
+            }
+        }
+        return new int[] { kl, ku };
+    }
+
+    /**
+     * 正方行列を帯行列に変換する. 
+     * @param a 正方行列
+     * @param kl 下の帯幅
+     * @param ku 上の帯幅
+     * @return 帯行列. 正方行列でない場合や, 帯の外に 0 でない要素がある場合は {@code null}
+     */
+    static BandMatrix of(Matrix a, int kl, int ku) {
+        if(a.m != a.n || kl < 0 || ku < 0) return null;
+        int [] bw = bandwidth(a);
+        if(bw[0] > kl || bw[1] > ku) return null;
+        int n = a.n;
+        kl = Math.min(kl, Math.max(n - 1, 0));
+        ku = Math.min(ku, Math.max(n - 1, 0));
+        BandMatrix ret = new BandMatrix(n, kl, ku);
+        for(int j = 0; j < n; j++) {
+            for(int i = Math.max(0, j - ku); i <= Math.min(n - 1, j + kl); i++) {
+                ret.ab[ret.bidx(i, j)] = a.get(i, j);
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * 帯幅が十分に狭い正方行列なら帯行列に変換する. 
+     * @param a 行列
+     * @param minSize これより小さい行列は変換しない
+     * @return 帯幅の和が {@code n / 4} より狭ければ帯行列, そうでなければ {@code a} そのもの
+     */
+    static Matrix detect(Matrix a, int minSize) {
+        if(a == null || a instanceof BandMatrix || a.m != a.n || a.n < minSize) return a;
+        int [] bw = bandwidth(a);
+        if((long)(bw[0] + bw[1] + 1) * 4 > a.n) return a;
+        return of(a, bw[0], bw[1]);
+    }
+
+    /**
+     * 帯の中の (i, j) 要素の {@code ab} での位置. 
+     */
+    int bidx(int i, int j) {
+        return ku + i - j + j * (kl + ku + 1);
+    }
+
+    /**
+     * (i, j) 要素が帯の中にあれば {@code true}. 
+     */
+    boolean inBand(int i, int j) {
+        return i - j <= kl && j - i <= ku;
+    }
+
+    double get(int i, int j) {
+        return inBand(i, j) ? ab[bidx(i, j)] : 0.0;
+    }
+
+    void set(int i, int j, double v) {
+        if(!inBand(i, j)) {
+            if(v == 0) return;
+            throw new UnsupportedOperationException("BandMatrix: (" + i + ", " + j + ") is outside the band");
+        }
+        bandCache = null;
+        luCache = null;
+        cholCache = null;
+        ab[bidx(i, j)] = v;
+    }
+
+    /**
+     * 帯行列はその場では書き換えない. 
+     * @return 常に {@code false}
+     */
+    boolean reusable() {
+        return false;
+    }
+
+    /**
+     * 同じ要素を持つ密な行列を返す. 
+     * @return 密な行列
+     */
+    Matrix toDense() {
+        Matrix ret = new Matrix(m, n);
+        for(int j = 0; j < n; j++) {
+            for(int i = Math.max(0, j - ku); i <= Math.min(n - 1, j + kl); i++) {
+                ret.set(i, j, ab[bidx(i, j)]);
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * 転置行列を新たな帯行列として返す（上下の帯幅が入れ替わる）. 
+     */
+    Matrix t() {
+        BandMatrix ret = new BandMatrix(n, ku, kl);
+        for(int j = 0; j < n; j++) {
+            for(int i = Math.max(0, j - ku); i <= Math.min(n - 1, j + kl); i++) {
+                ret.ab[ret.bidx(j, i)] = ab[bidx(i, j)];
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * 部分行列を新たな行列として返す（ビューではない）. 
+     * 対角に沿った正方の部分なら同じ帯幅の帯行列を, そうでなければ帯の中の要素だけを持つ疎行列を返す. 
+     * どちらも密な行列には変換しないので, 大きな帯行列の行や列も帯幅に比例する手間で取り出せる. 
+     * @return 部分行列. 範囲がおかしい場合には {@code null}. 
+     */
+    Matrix slice(int r0, int r1, int c0, int c1) {
+        if(r0 < 0 || r1 > m || r0 >= r1 || c0 < 0 || c1 > n || c0 >= c1) return null;
+        if(r0 == c0 && r1 == c1) {
+            int k = r1 - r0;
+            BandMatrix ret = new BandMatrix(k, Math.min(kl, k - 1), Math.min(ku, k - 1));
+            for(int j = 0; j < k; j++) {
+                for(int i = Math.max(0, j - ret.ku); i <= Math.min(k - 1, j + ret.kl); i++) {
+                    ret.ab[ret.bidx(i, j)] = ab[bidx(r0 + i, c0 + j)];
+                }
+            }
+            return ret;
+        }
+        int [] rp = new int[r1 - r0 + 1];
+        int [] ci = new int[(r1 - r0) * (kl + ku + 1)];
+        double [] v = new double[ci.length];
+        int nz = 0;
+        for(int i = r0; i < r1; i++) {
+            for(int j = Math.max(c0, i - kl); j < Math.min(c1, i + ku + 1); j++) {
+                double x = ab[bidx(i, j)];
+                if(x == 0) continue;
+                ci[nz] = j - c0;
+                v[nz++] = x;
+            }
+            rp[i - r0 + 1] = nz;
+        }
+        return new SparseMatrix(r1 - r0, c1 - c0, rp, Arrays.copyOf(ci, nz), Arrays.copyOf(v, nz));
+    }
+
+    Matrix toOffHeap() {
+        return toDense().toOffHeap();
+    }
+
+    Matrix add(Matrix mat) {
+        if(mat == null || sizeMismatch(mat)) return null;
+        return (mat instanceof BandMatrix) ? plus(1, (BandMatrix)mat) : axpyInto(1, mat, new Matrix(m, n));
+    }
+
+    Matrix sub(Matrix mat) {
+        if(mat == null || sizeMismatch(mat)) return null;
+        return (mat instanceof BandMatrix) ? plus(-1, (BandMatrix)mat) : axpyInto(-1, mat, new Matrix(m, n));
+    }
+
+    /**
+     * 帯行列どうしの {@code this} + {@code a} * {@code mat} を返す. 帯幅は広い方に合わせる. 
+     * @param a 係数
+     * @param mat 足す帯行列（サイズは同じ）
+     * @return 結果の帯行列
+     */
+    BandMatrix plus(double a, BandMatrix mat) {
+        BandMatrix ret = new BandMatrix(n, Math.max(kl, mat.kl), Math.max(ku, mat.ku));
+        for(int j = 0; j < n; j++) {
+            for(int i = Math.max(0, j - ret.ku); i <= Math.min(n - 1, j + ret.kl); i++) {
+                ret.ab[ret.bidx(i, j)] = get(i, j) + a * mat.get(i, j);
+            }
+        }
+        return ret;
+    }
+
+    Matrix smul(double a) {
+        double [] v = new double[ab.length];
+        for(int p = 0; p < v.length; p++) v[p] = a * ab[p];
+        return new BandMatrix(n, kl, ku, v);
+    }
+
+    Matrix scaleInPlace(double a) {
+        bandCache = null;
+        luCache = null;
+        cholCache = null;
+        for(int p = 0; p < ab.length; p++) ab[p] *= a;
+        return this;
+    }
+
+    /**
+     * 帯行列と行列の積を返す. 
+     * 相手が帯行列なら結果も帯行列（帯幅はそれぞれの和）, そうでなければ密な行列になる. 
+     */
+    Matrix mul(Matrix mat) {
+        if(mat == null || this.n != mat.m) return null;
+        if(mat instanceof BandMatrix) {
+            BandMatrix b = (BandMatrix)mat;
+            BandMatrix ret = new BandMatrix(n, Math.min(kl + b.kl, Math.max(n - 1, 0)), Math.min(ku + b.ku, Math.max(n - 1, 0)));
+            for(int i = 0; i < n; i++) {
+                for(int k = Math.max(0, i - kl); k <= Math.min(n - 1, i + ku); k++) {
+                    double a = ab[bidx(i, k)];
+                    if(a == 0) continue;
+                    for(int j = Math.max(0, k - b.kl); j <= Math.min(n - 1, k + b.ku); j++) {
+                        ret.ab[ret.bidx(i, j)] += a * b.ab[b.bidx(k, j)];
+                    }
+                }
+            }
+            return ret;
+        }
+        return mulInto(mat, new Matrix(m, mat.n));
+    }
+
+    /**
+     * 帯行列と密な行列の積を {@code dst} に書き込む. 
+     * 各行について, 帯の中の要素 {@code a_ik} ごとに相手の {@code k} 行目の {@code a_ik} 倍を足し込む. 
+     */
+    Matrix mulInto(Matrix mat, Matrix dst) {
+        if(mat == null || dst == null || this.n != mat.m || dst.m != this.m || dst.n != mat.n) return null;
+        SparseMatrix.clear(dst);
+        boolean rows = SparseMatrix.rowMajor(mat) && SparseMatrix.rowMajor(dst);
+        for(int i = 0; i < n; i++) {
+            for(int k = Math.max(0, i - kl); k <= Math.min(n - 1, i + ku); k++) {
+                double a = ab[bidx(i, k)];
+                if(a == 0) continue;
+                if(rows) {
+                    kernels.axpy(mat.n, a, mat.vals, mat.idx(k, 0), dst.vals, dst.idx(i, 0));
+                    continue;
+                }
+                for(int j = 0; j < mat.n; j++) {
+                    dst.set(i, j, dst.get(i, j) + a * mat.get(k, j));
+                }
+            }
+        }
+        return dst;
+    }
+
+    /**
+     * {@code y = this * x} を帯の中の要素だけで計算する. 
+     */
+    public void apply(double [] x, double [] y) {
+        for(int i = 0; i < n; i++) {
+            double d = 0;
+            for(int j = Math.max(0, i - kl); j <= Math.min(n - 1, i + ku); j++) d += ab[bidx(i, j)] * x[j];
+            y[i] = d;
+        }
+    }
+
+    /**
+     * 対称かどうかを, 帯の中の要素だけを比べて調べる. 
+     */
+    public boolean symmetric() {
+        if(kl != ku) return false;
+        for(int j = 0; j < n; j++) {
+            for(int i = j + 1; i <= Math.min(n - 1, j + kl); i++) {
+                if(ab[bidx(i, j)] != ab[bidx(j, i)]) return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 帯の LU 分解を返す. 
+     * 一度分解したらキャッシュしておき, 自身が書き換えられるまでは同じものを返す. 
+     * @return 帯の LU 分解
+     */
+    BandLUDecomposition bandLU() {
+        if(bandCache == null) bandCache = new BandLUDecomposition(this);
+        return bandCache;
+    }
+
+    /**
+     * 対称正定値ならコレスキー分解を返す. 
+     * L の帯幅は A と同じなので, 帯の中だけを {@code O(n kl^2)} で分解し, 結果も帯行列（{@code BandMatrix(n, kl, 0)}）に置く. 
+     * 一度分解したらキャッシュしておき, 自身が書き換えられるまでは同じものを返す. 
+     * （連立方程式などはこれを使わず, 帯の LU 分解で解く. ）
+     * @return コレスキー分解. 対称でない場合, 正定値でない場合には {@code null}. 
+     */
+    CholeskyDecomposition chol() {
+        if(cholCache == null) cholCache = bandCholesky();
+        return cholCache.spd ? cholCache : null;
+    }
+
+    /**
+     * 帯の中だけで行ごとにコレスキー分解する. 
+     * {@code l_ij = (a_ij - Σ_p l_ip l_jp) / l_jj} の和は帯の中の {@code p} だけをとる. 
+     * 対称でないか, 対角が正にならなければ, L の配列を持たない失敗の結果を返す. 
+     */
+    CholeskyDecomposition bandCholesky() {
+        if(kl != ku) return new CholeskyDecomposition(n, null, false);
+        for(int j = 0; j < n; j++) {
+            for(int i = j + 1; i <= Math.min(n - 1, j + kl); i++) {
+                double a = ab[bidx(i, j)], b = ab[bidx(j, i)];
+                if(Math.abs(a - b) > 1e-12 * Math.max(Math.abs(a), Math.abs(b))) return new CholeskyDecomposition(n, null, false);
+            }
+        }
+        BandMatrix l = new BandMatrix(n, kl, 0);
+        double [] lb = l.ab;
+        for(int i = 0; i < n; i++) {
+            int p0 = Math.max(0, i - kl);
+            for(int j = p0; j <= i; j++) {
+                double s = ab[bidx(i, j)];
+                for(int p = Math.max(p0, j - kl); p < j; p++) s -= lb[l.bidx(i, p)] * lb[l.bidx(j, p)];
+                if(j < i) {
+                    lb[l.bidx(i, j)] = s / lb[l.bidx(j, j)];
+                } else {
+                    if(!(s > 0)) return new CholeskyDecomposition(n, null, false);
+                    lb[l.bidx(i, i)] = Math.sqrt(s);
+                }
+            }
+        }
+        return new BandCholeskyDecomposition(l);
+    }
+
+    Matrix solve(Matrix b) {
+        return bandLU().solve(b);
+    }
+
+    Matrix inv() {
+        return bandLU().inverse();
+    }
+
+    double determ() {
+        return bandLU().det();
+    }
+
+    boolean nonregular() {
+        return bandLU().singular;
+    }
+
+    /**
+     * 普通の行列と同じ形式で表示する. ただし要素数が {@code PRINT_LIMIT} を超える（密な形では表示しきれない）大きな行列は帯幅だけを表示する. 
+     * 入力した行列が自動的に帯行列になっても表示は変わらない. 
+     */
+    public String toString() {
+        if((long)m * n <= PRINT_LIMIT) return super.toString();
+        return String.format("band %d x %d, kl = %d, ku = %d", m, n, kl, ku);
+    }
+}
+
+/**
+ * 対称正定値の帯行列のコレスキー分解 {@code A = L L^T}. 
+ * L は A と同じ下の帯幅を持つので, 密な配列ではなく帯行列（{@code BandMatrix(n, kl, 0)}）に持つ. 
+ * 右辺ひとつあたりの前進代入と後退代入は {@code O(n kl)}. 
+ * {@code BandMatrix.bandCholesky} が分解に成功したときにだけ作る. 
+ */
+class BandCholeskyDecomposition extends CholeskyDecomposition {
+    /**
+     * L を入れた帯行列. 
+     */
+    final BandMatrix lb;
+
+    /**
+     * 分解済みの L をそのまま使うコンストラクタ. 
+     * @param lb L を入れた帯行列（上の帯幅は 0）
+     */
+    BandCholeskyDecomposition(BandMatrix lb) {
+        super(lb.n, null, true);
+        this.lb = lb;
+    }
+
+    double det() {
+        double d = 1;
+        for(int i = 0; i < n; i++) d *= lb.ab[lb.bidx(i, i)];
+        return d * d;
+    }
+
+    /**
+     * 下三角行列 L を新たな帯行列として返す. 
+     * @return {@code n}×{@code n} の下の帯幅 {@code kl} の帯行列
+     */
+    Matrix lower() {
+        return new BandMatrix(n, lb.kl, 0, lb.ab.clone());
+    }
+
+    Matrix solve(Matrix b) {
+        if(b == null || b.m != n) return null;
+        int k = b.n, kl = lb.kl;
+        double [] ab = lb.ab;
+        // 右辺を行優先で用意し, 行ごとの axpy で代入を進める（帯の中の行だけ）
+        Matrix x = new Matrix(n, k);
+        double [] xv = x.vals;
+        for(int i = 0; i < n; i++) {
+            for(int j = 0; j < k; j++) {
+                xv[i * k + j] = b.get(i, j);
+            }
+        }
+        MatrixKernels kern = Matrix.kernels;
+        // 前進代入 L Y = B
+        for(int c = 0; c < n; c++) {
+            kern.scale(k, 1 / ab[lb.bidx(c, c)], xv, c * k, xv, c * k);
+            for(int i = c + 1; i <= Math.min(n - 1, c + kl); i++) {
+                double v = ab[lb.bidx(i, c)];
+                if(v != 0) kern.axpy(k, -v, xv, c * k, xv, i * k);
+            }
+        }
+        // 後退代入 L^T X = Y（L^T の (i, c) 要素は L の (c, i) 要素）
+        for(int c = n - 1; c >= 0; c--) {
+            kern.scale(k, 1 / ab[lb.bidx(c, c)], xv, c * k, xv, c * k);
+            for(int i = Math.max(0, c - kl); i < c; i++) {
+                double v = ab[lb.bidx(c, i)];
+                if(v != 0) kern.axpy(k, -v, xv, c * k, xv, i * k);
+            }
+        }
+        return x;
+    }
+}
+
+/**
+ * 帯行列の部分ピボット選択付き LU 分解 {@code PA = LU}（LAPACK の dgbtrf と同じ方法）. 
+ * 行を入れ替えると U の上の帯幅が {@code ku + kl} まで広がるので, 
+ * {@code (2 kl + ku + 1)}×{@code n} の帯格納形式の配列で分解する. 
+ * 帯幅を w として分解は {@code O(n w^2)}, 右辺ひとつあたりの前進代入と後退代入は {@code O(n w)}. <br />
+ * 三重対角行列（{@code kl = ku = 1}）で対角優位なら, ピボット選択の要らない Thomas 法で分解する. 
+ */
+class BandLUDecomposition {
+    final int n, kl, ku;
+    /**
+     * 分解の結果（列優先の {@code (2 kl + ku + 1)}×{@code n}）. 
+     * (i, j) 要素は {@code ab[kl + ku + i - j + j * ldab]} にあり, 対角より下に L の乗数, 対角とその上に U を持つ. 
+     * Thomas 法のときは使わない. 
+     */
+    final double [] ab;
+    final int ldab;
+    /**
+     * {@code j} 段目で {@code j} 行目と入れ替えた行. 
+     */
+    final int [] ipiv;
+    /**
+     * Thomas 法のときの, 下副対角, 消去後の対角の逆数, 消去後の上副対角. 
+     */
+    final double [] dl, w, cu;
+    final boolean singular;
+    final double det;
+
+    BandLUDecomposition(BandMatrix a) {
+        n = a.n;
+        kl = a.kl;
+        ku = a.ku;
+        if(kl == 1 && ku == 1 && dominant(a)) {
+            // 三重対角行列の Thomas 法. 対角優位ならピボット選択は要らない
+            dl = new double[n];
+            w = new double[n];
+            cu = new double[n];
+            double d = 1;
+            boolean sing = false;
+            for(int i = 0; i < n; i++) {
+                double b = a.get(i, i);
+                if(i > 0) {
+                    dl[i] = a.get(i, i - 1);
+                    b -= dl[i] * cu[i - 1];
+                }
+                if(b == 0) {
+                    sing = true;
+                    d = 0;
+                    break;
+                }
+                d *= b;
+                w[i] = 1 / b;
+                if(i < n - 1) cu[i] = a.get(i, i + 1) * w[i];
+            }
+            ab = null;
+            ldab = 0;
+            ipiv = null;
+            singular = sing;
+            det = d;
+            return;
+        }
+        dl = w = cu = null;
+        int kv = kl + ku;
+        ldab = 2 * kl + ku + 1;
+        ab = new double[ldab * n];
+        for(int j = 0; j < n; j++) {
+            for(int i = Math.max(0, j - ku); i <= Math.min(n - 1, j + kl); i++) {
+                ab[kv + i - j + j * ldab] = a.ab[a.bidx(i, j)];
+            }
+        }
+        ipiv = new int[n];
+        boolean sing = false;
+        double d = 1;
+        int ju = 0; // U の 0 でない部分の右端の列
+        for(int j = 0; j < n; j++) {
+            int km = Math.min(kl, n - 1 - j);
+            int dj = kv + j * ldab; // (j, j) 要素の位置
+            // ピボットの選択
+            int jp = 0;
+            for(int t = 1; t <= km; t++) {
+                if(Math.abs(ab[dj + t]) > Math.abs(ab[dj + jp])) jp = t;
+            }
+            ipiv[j] = j + jp;
+            if(ab[dj + jp] == 0) {
+                sing = true;
+                d = 0;
+                continue;
+            }
+            ju = Math.max(ju, Math.min(j + ku + jp, n - 1));
+            if(jp != 0) {
+                d = -d;
+                for(int c = j; c <= ju; c++) {
+                    int p = kv + j - c + c * ldab;
+                    double tmp = ab[p];
+                    ab[p] = ab[p + jp];
+                    ab[p + jp] = tmp;
+                }
+            }
+            double piv = ab[dj];
+            d *= piv;
+            if(km > 0) {
+                for(int t = 1; t <= km; t++) ab[dj + t] /= piv;
+                // 右下の部分に階数 1 の更新
+                for(int c = j + 1; c <= ju; c++) {
+                    int p = kv + j - c + c * ldab;
+                    double u = ab[p];
+                    if(u == 0) continue;
+                    for(int t = 1; t <= km; t++) ab[p + t] -= ab[dj + t] * u;
+                }
+            }
+        }
+        singular = sing;
+        det = d;
+    }
+
+    /**
+     * 三重対角行列が（弱く）対角優位なら {@code true}. 
+     */
+    static boolean dominant(BandMatrix a) {
+        for(int i = 0; i < a.n; i++) {
+            double off = (i > 0 ? Math.abs(a.get(i, i - 1)) : 0) + (i < a.n - 1 ? Math.abs(a.get(i, i + 1)) : 0);
+            if(Math.abs(a.get(i, i)) < off) return false;
+        }
+        return true;
+    }
+
+    /**
+     * 行列式の値を返す. 
+     */
+    double det() {
+        return det;
+    }
+
+    /**
+     * 右辺のベクトルひとつについて, その場で {@code A x = b} を解く. 
+     * @param x 右辺. 解で上書きされる
+     */
+    void solveInPlace(double [] x) {
+        if(w != null) {
+            // Thomas 法の前進消去と後退代入
+            x[0] *= w[0];
+            for(int i = 1; i < n; i++) x[i] = (x[i] - dl[i] * x[i - 1]) * w[i];
+            for(int i = n - 2; i >= 0; i--) x[i] -= cu[i] * x[i + 1];
+            return;
+        }
+        int kv = kl + ku;
+        // L y = P b（行の入れ替えは段ごとに施す）
+        for(int j = 0; j < n - 1; j++) {
+            int km = Math.min(kl, n - 1 - j);
+            int p = ipiv[j];
+            if(p != j) {
+                double tmp = x[p];
+                x[p] = x[j];
+                x[j] = tmp;
+            }
+            double xj = x[j];
+            if(xj == 0) continue;
+            int dj = kv + j * ldab;
+            for(int t = 1; t <= km; t++) x[j + t] -= ab[dj + t] * xj;
+        }
+        // U x = y（U の j 列目は連続しているので列ごとに）
+        for(int j = n - 1; j >= 0; j--) {
+            int dj = kv + j * ldab;
+            double xj = x[j] / ab[dj];
+            x[j] = xj;
+            if(xj == 0) continue;
+            for(int i = Math.max(0, j - kv); i < j; i++) x[i] -= ab[dj + i - j] * xj;
+        }
+    }
+
+    /**
+     * {@code A X = b} を解く. 
+     * @param b 右辺の行列（各列がそれぞれの右辺）
+     * @return 解 {@code X}. 正則でない場合やサイズが合わない場合には {@code null}
+     */
+    Matrix solve(Matrix b) {
+        if(singular || b == null || b.m != n) return null;
+        double [] x = new double[n];
+        if(b.n == 1) {
+            for(int i = 0; i < n; i++) x[i] = b.get(i, 0);
+            solveInPlace(x);
+            return new Matrix(x, null, 0, n, 1, 1, 1, false);
+        }
+        Matrix ret = new Matrix(n, b.n);
+        for(int j = 0; j < b.n; j++) {
+            for(int i = 0; i < n; i++) x[i] = b.get(i, j);
+            solveInPlace(x);
+            for(int i = 0; i < n; i++) ret.set(i, j, x[i]);
+        }
+        return ret;
+    }
+
+    /**
+     * 逆行列を返す（一般に帯行列にはならないので密な行列）. 
+     * @return 逆行列. 正則でない場合には {@code null}
+     */
+    Matrix inverse() {
+        return solve(Matrix.eye(n));
+    }
+}
+
+/**
+ * 正方行列の部分ピボット選択付き LU 分解 {@code PA = LU}. 
+ * L（対角が 1 の下三角行列）と U（上三角行列）はひとつの行優先の配列 {@code lu} に詰めて持ち, 
+ * 行の入れ替え P はピボット列 {@code piv} で表す. <br />
+ * 一度分解しておけば, 上三角行列, 下三角行列, 行列式, 逆行列, 連立方程式の解はすべてここから求まる. 
+ * {@code Matrix.lu()} が行列ごとに一度だけ分解してキャッシュする. 
+ */
+class LUDecomposition {
+    /**
+     * 行列のサイズ. 
+     */
+    final int n;
+    /**
+     * L と U を詰めた {@code n}×{@code n} の行優先の配列. 
+     * 対角より下が L（対角の 1 は持たない）, 対角とそれより上が U. 
+     */
+    final double [] lu;
+    /**
+     * ピボット列. PA の i 行目は A の {@code piv[i]} 行目. 
+     */
+    final int [] piv;
+    /**
+     * 行の入れ替えの符号（偶置換なら 1, 奇置換なら -1）. 
+     */
+    final int sign;
+    /**
+     * 分解の途中でピボットが 0 になった（行列が正則でない）ときに {@code true}. 
+     */
+    final boolean singular;
+
+    /**
+     * 与えられた正方行列を LU 分解するコンストラクタ. 
+     * 各列で絶対値が最大の要素をピボットに選んで行を入れ替える. 
+     * ピボットが 0 の列は消去を飛ばして続けるので, 正則でない行列も分解はできる（{@code singular} が {@code true} になる）. 
+     * @param a 分解する正方行列（書き換えない）
+     */
+    LUDecomposition(Matrix a) {
+        n = a.n;
+        lu = new double[n * n];
+        piv = new int[n];
+        for(int i = 0; i < n; i++) {
+            piv[i] = i;
+            for(int j = 0; j < n; j++) {
+                lu[i * n + j] = a.get(i, j);
+            }
+        }
+        int sgn = 1;
+        boolean sing = false;
+        for(int k = 0; k < n; k++) {
+            // ピボットの選択
+            int p = k;
+            for(int i = k + 1; i < n; i++) {
+                if(Math.abs(lu[i * n + k]) > Math.abs(lu[p * n + k])) p = i;
+            }
+            if(p != k) {
+                swapRows(lu, n, p, k);
+                int t = piv[p]; piv[p] = piv[k]; piv[k] = t;
+                sgn = -sgn;
+            }
+            double d = lu[k * n + k];
+            if(d == 0) {
+                sing = true;
+                continue;
+            }
+            // k 行目より下の行から k 行目の定数倍を引く（右下の部分行列の更新）
+            for(int i = k + 1; i < n; i++) {
+                double l = lu[i * n + k] / d;
+                lu[i * n + k] = l;
+                if(l != 0) Matrix.kernels.axpy(n - k - 1, -l, lu, k * n + k + 1, lu, i * n + k + 1);
+            }
+        }
+        sign = sgn;
+        singular = sing;
+    }
+
+    /**
+     * 行優先の配列の 2つの行を入れ替える. 
+     */
+    static void swapRows(double [] a, int n, int p, int q) {
+        for(int j = 0; j < n; j++) {
+            double t = a[p * n + j];
+            a[p * n + j] = a[q * n + j];
+            a[q * n + j] = t;
+        }
+    }
+
+    /**
+     * 行列式の値を返す. U の対角成分の積に行の入れ替えの符号を掛けたもの. 
+     * @return 行列式の値
+     */
+    double det() {
+        double d = sign;
+        for(int i = 0; i < n; i++) {
+            d *= lu[i * n + i];
+        }
+        return d;
+    }
+
+    /**
+     * 上三角行列 U を新たに生成して返す. 
+     * @return U
+     */
+    Matrix u() {
+        Matrix ret = new Matrix(n, n);
+        for(int i = 0; i < n; i++) {
+            for(int j = i; j < n; j++) {
+                ret.set(i, j, lu[i * n + j]);
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * 対角が 1 の下三角行列 L を新たに生成して返す. 
+     * @return L
+     */
+    Matrix l() {
+        Matrix ret = new Matrix(n, n);
+        for(int i = 0; i < n; i++) {
+            for(int j = 0; j < i; j++) {
+                ret.set(i, j, lu[i * n + j]);
+            }
+            ret.set(i, i, 1);
+        }
+        return ret;
+    }
+
+    /**
+     * 行の入れ替えを表す置換行列 P を新たに生成して返す. 
+     * @return {@code PA = LU} となる置換行列 P
+     */
+    Matrix p() {
+        Matrix ret = new Matrix(n, n);
+        for(int i = 0; i < n; i++) {
+            ret.set(i, piv[i], 1); // PA の i 行目は A の piv[i] 行目
+        }
+        return ret;
+    }
+
+    /**
+     * 連立方程式 {@code AX = B} を前進代入と後退代入で解く. 
+     * {@code B} の各列をそれぞれ右辺とする. 
+     * @param b 右辺の {@code n}×{@code k} 行列
+     * @return 解 {@code X}（{@code n}×{@code k}）. 行列が正則でないか, サイズが合わない場合には {@code null}. 
+     */
+    Matrix solve(Matrix b) {
+        if(singular || b == null || b.m != n) return null;
+        int k = b.n;
+        // 行の入れ替えを施した右辺を行優先で用意し, 行ごとの axpy で代入を進める
+        Matrix x = new Matrix(n, k);
+        double [] xv = x.vals;
+        for(int i = 0; i < n; i++) {
+            for(int j = 0; j < k; j++) {
+                xv[i * k + j] = b.get(piv[i], j);
+            }
+        }
+        MatrixKernels kern = Matrix.kernels;
+        // 前進代入 L Y = PB
+        for(int c = 0; c < n; c++) {
+            for(int i = c + 1; i < n; i++) {
+                double l = lu[i * n + c];
+                if(l != 0) kern.axpy(k, -l, xv, c * k, xv, i * k);
+            }
+        }
+        // 後退代入 U X = Y
+        for(int c = n - 1; c >= 0; c--) {
+            kern.scale(k, 1 / lu[c * n + c], xv, c * k, xv, c * k);
+            for(int i = 0; i < c; i++) {
+                double u = lu[i * n + c];
+                if(u != 0) kern.axpy(k, -u, xv, c * k, xv, i * k);
+            }
+        }
+        return x;
+    }
+
+    /**
+     * 転置した連立方程式 {@code A^T X = B} を解く. 
+     * {@code A^T = U^T L^T P} なので, U^T での前進代入, L^T での後退代入の後に行を並べ替える. 
+     * @param b 右辺の {@code n}×{@code k} 行列
+     * @return 解 {@code X}（{@code n}×{@code k}, 行優先）. 行列が正則でないか, サイズが合わない場合には {@code null}. 
+     */
+    Matrix solveTransposed(Matrix b) {
+        if(singular || b == null || b.m != n) return null;
+        int k = b.n;
+        double [] zv = new double[n * k];
+        for(int i = 0; i < n; i++) {
+            for(int j = 0; j < k; j++) {
+                zv[i * k + j] = b.get(i, j);
+            }
+        }
+        MatrixKernels kern = Matrix.kernels;
+        // 前進代入 U^T Z = B（U^T の (i, c) 要素は U の (c, i) 要素）
+        for(int c = 0; c < n; c++) {
+            kern.scale(k, 1 / lu[c * n + c], zv, c * k, zv, c * k);
+            for(int i = c + 1; i < n; i++) {
+                double u = lu[c * n + i];
+                if(u != 0) kern.axpy(k, -u, zv, c * k, zv, i * k);
+            }
+        }
+        // 後退代入 L^T W = Z（対角は 1）
+        for(int c = n - 1; c >= 0; c--) {
+            for(int i = 0; i < c; i++) {
+                double l = lu[c * n + i];
+                if(l != 0) kern.axpy(k, -l, zv, c * k, zv, i * k);
+            }
+        }
+        // P X = W
+        Matrix x = new Matrix(n, k);
+        for(int i = 0; i < n; i++) {
+            System.arraycopy(zv, i * k, x.vals, piv[i] * k, k);
+        }
+        return x;
+    }
+
+    /**
+     * 右から割る形の連立方程式 {@code XA = B} を解く. 
+     * 両辺を転置した {@code A^T X^T = B^T} を {@code solveTransposed} で解き, 
+     * その結果の配列をそのまま列優先の行列として読み替えて {@code X} にする（転置のコピーは不要）. 
+     * @param b 右辺の {@code p}×{@code n} 行列
+     * @return 解 {@code X}（{@code p}×{@code n}, 列優先）. 行列が正則でないか, サイズが合わない場合には {@code null}. 
+     */
+    Matrix solveRight(Matrix b) {
+        if(b == null || b.n != n) return null;
+        Matrix xt = solveTransposed(b.t());
+        if(xt == null) return null;
+        return new Matrix(xt.vals, null, 0, b.m, n, 1, b.m, false);
+    }
+
+    /**
+     * 逆行列を新たに生成して返す. 
+     * {@code A^-1 = U^-1 L^-1 P} なので, 単位行列に前進代入と後退代入を施してから列を並べ替える. 
+     * L^-1 は下三角なので, 前進代入では各行の対角より左の部分だけを更新すればよい. 
+     * @return 逆行列. 正則でない場合には {@code null}. 
+     */
+    Matrix inverse() {
+        if(singular) return null;
+        double [] xv = new double[n * n];
+        for(int i = 0; i < n; i++) {
+            xv[i * n + i] = 1;
+        }
+        MatrixKernels kern = Matrix.kernels;
+        // 前進代入 L Y = I（Y の c 行目は 0..c 列だけが 0 でない）
+        for(int c = 0; c < n; c++) {
+            for(int i = c + 1; i < n; i++) {
+                double l = lu[i * n + c];
+                if(l != 0) kern.axpy(c + 1, -l, xv, c * n, xv, i * n);
+            }
+        }
+        // 後退代入 U X = Y
+        for(int c = n - 1; c >= 0; c--) {
+            kern.scale(n, 1 / lu[c * n + c], xv, c * n, xv, c * n);
+            for(int i = 0; i < c; i++) {
+                double u = lu[i * n + c];
+                if(u != 0) kern.axpy(n, -u, xv, c * n, xv, i * n);
+            }
+        }
+        // 右から P を掛ける: X の i 列目が逆行列の piv[i] 列目
+        Matrix ret = new Matrix(n, n);
+        for(int r = 0; r < n; r++) {
+            for(int i = 0; i < n; i++) {
+                ret.vals[r * n + piv[i]] = xv[r * n + i];
+            }
+        }
+        return ret;
+    }
+}
+
+/**
+ * 対称正定値行列のコレスキー分解 {@code A = L L^T}. 
+ * L（下三角行列）を行優先の配列 {@code l} に持つ（対角より上は 0）. 
+ * ピボット選択が要らず, 計算量は LU 分解の半分で済む. <br />
+ * 分解は列を {@code NB} 本ずつのパネルに分けて進め, パネルを分解した後に残りの部分を
+ * パネルの長さの {@code dot} でまとめて更新する（ブロック化した右向きの分解）. 
+ * 途中で対角が正にならなければ正定値ではないので, {@code spd} を {@code false} にして分解をやめる. 
+ */
+class CholeskyDecomposition {
+    /**
+     * パネルの幅. 
+     */
+    static final int NB = 64;
+    /**
+     * 行列のサイズ. 
+     */
+    final int n;
+    /**
+     * L を入れた {@code n}×{@code n} の行優先の配列. 分解に失敗したときは {@code null}. 
+     */
+    final double [] l;
+    /**
+     * 分解に成功した（行列が正定値だった）ときに {@code true}. 
+     */
+    final boolean spd;
+
+    /**
+     * 与えられた正方行列をコレスキー分解する. 元の行列は変更しない. 
+     * 対称でなければ配列を確保する前に失敗（{@code spd} が {@code false}）とする. 
+     * 失敗したときは作業用の配列を捨てるので, 失敗の結果はキャッシュしておいても場所を取らない. 
+     * @param mat 正方行列
+     */
+    CholeskyDecomposition(Matrix mat) {
+        this.n = mat.m;
+        if(!EigenDecomposition.isSymmetric(mat)) {
+            this.l = null;
+            this.spd = false;
+            return;
+        }
+        double [] a = new double[n * n];
+        for(int i = 0; i < n; i++) {
+            for(int j = 0; j <= i; j++) {
+                a[i * n + j] = mat.get(i, j);
+            }
+        }
+        this.spd = factor(a, n);
+        this.l = spd ? a : null;
+    }
+
+    /**
+     * 分解済みの L をそのまま使うコンストラクタ. 
+     * @param n 行列のサイズ
+     * @param l L を入れた行優先の配列. 失敗なら {@code null}
+     * @param spd 分解に成功したときに {@code true}
+     */
+    CholeskyDecomposition(int n, double [] l, boolean spd) {
+        this.n = n;
+        this.l = l;
+        this.spd = spd;
+    }
+
+    /**
+     * 下三角部分に対称行列を入れた配列をその場でコレスキー分解する. 
+     * @param a 行優先の {@code n}×{@code n} の配列
+     * @param n 行列のサイズ
+     * @return 正定値で分解できたら {@code true}
+     */
+    static boolean factor(double [] a, int n) {
+        MatrixKernels kern = Matrix.kernels;
+        for(int k0 = 0; k0 < n; k0 += NB) {
+            int k1 = Math.min(n, k0 + NB);
+            // パネル（列 k0..k1-1）の分解. 左側のパネルの寄与は更新済み
+            for(int j = k0; j < k1; j++) {
+                double s = a[j * n + j] - kern.dot(j - k0, a, j * n + k0, a, j * n + k0);
+                if(!(s > 0)) return false;
+                double d = Math.sqrt(s);
+                a[j * n + j] = d;
+                for(int i = j + 1; i < n; i++) {
+                    a[i * n + j] = (a[i * n + j] - kern.dot(j - k0, a, i * n + k0, a, j * n + k0)) / d;
+                }
+            }
+            // 残りの部分の更新 A22 -= L21 L21^T（下三角だけ）
+            for(int i = k1; i < n; i++) {
+                for(int j = k1; j <= i; j++) {
+                    a[i * n + j] -= kern.dot(k1 - k0, a, i * n + k0, a, j * n + k0);
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 行列式を返す. 
+     * @return L の対角要素の積の 2 乗
+     */
+    double det() {
+        double d = 1;
+        for(int i = 0; i < n; i++) d *= l[i * n + i];
+        return d * d;
+    }
+
+    /**
+     * 下三角行列 L を新たに生成して返す. 
+     * @return {@code n}×{@code n} の下三角行列
+     */
+    Matrix lower() {
+        Matrix ret = new Matrix(n, n);
+        System.arraycopy(l, 0, ret.vals, 0, n * n);
+        return ret;
+    }
+
+    /**
+     * 連立方程式 {@code AX = B} を前進代入と後退代入で解く. 
+     * {@code B} の各列をそれぞれ右辺とする. 
+     * @param b 右辺の {@code n}×{@code k} 行列
+     * @return 解 {@code X}（{@code n}×{@code k}）. 正定値でないか, サイズが合わない場合には {@code null}. 
+     */
+    Matrix solve(Matrix b) {
+        if(!spd || b == null || b.m != n) return null;
+        int k = b.n;
+        // 右辺を行優先で用意し, 行ごとの axpy で代入を進める
+        Matrix x = new Matrix(n, k);
+        double [] xv = x.vals;
+        for(int i = 0; i < n; i++) {
+            for(int j = 0; j < k; j++) {
+                xv[i * k + j] = b.get(i, j);
+            }
+        }
+        MatrixKernels kern = Matrix.kernels;
+        // 前進代入 L Y = B
+        for(int c = 0; c < n; c++) {
+            kern.scale(k, 1 / l[c * n + c], xv, c * k, xv, c * k);
+            for(int i = c + 1; i < n; i++) {
+                double v = l[i * n + c];
+                if(v != 0) kern.axpy(k, -v, xv, c * k, xv, i * k);
+            }
+        }
+        // 後退代入 L^T X = Y（L^T の (i, c) 要素は L の (c, i) 要素）
+        for(int c = n - 1; c >= 0; c--) {
+            kern.scale(k, 1 / l[c * n + c], xv, c * k, xv, c * k);
+            for(int i = 0; i < c; i++) {
+                double v = l[c * n + i];
+                if(v != 0) kern.axpy(k, -v, xv, c * k, xv, i * k);
+            }
+        }
+        return x;
+    }
+
+    /**
+     * 右から割る形の連立方程式 {@code XA = B} を解く. 
+     * A は対称なので {@code A X^T = B^T} を解き, 結果の配列を列優先の行列として読み替える. 
+     * @param b 右辺の {@code p}×{@code n} 行列
+     * @return 解 {@code X}（{@code p}×{@code n}, 列優先）. 正定値でないか, サイズが合わない場合には {@code null}. 
+     */
+    Matrix solveRight(Matrix b) {
+        if(b == null || b.n != n) return null;
+        Matrix xt = solve(b.t());
+        if(xt == null) return null;
+        return new Matrix(xt.vals, null, 0, b.m, n, 1, b.m, false);
+    }
+
+    /**
+     * 逆行列を新たに生成して返す. 
+     * @return 逆行列. 正定値でない場合には {@code null}. 
+     */
+    Matrix inverse() {
+        return solve(Matrix.eye(n));
+    }
+}
+
+/**
+ * Householder 変換による QR 分解 {@code A = QR}（{@code m}×{@code n} 行列, {@code k = min(m, n)}）. 
+ * 縦長の行列で列が連続するように, 行列は列優先の配列 {@code a} に持つ. 
+ * 分解の後, {@code a} の対角とそれより下には Householder ベクトル {@code v}（{@code v} の先頭は 1）が, 
+ * 対角より上には R が入り, R の対角は {@code rdiag} に別に持つ. <br />
+ * 列を {@code NB} 本ずつのパネルに分け, パネル内の反射を compact WY 形式 {@code H_1...H_b = I - V T V^T} にまとめてから, 
+ * 残りの列に {@code C -= V T^T (V^T C)} として一度に掛ける. 
+ * {@code V^T C} と {@code V W} は行を {@code CHUNK} 行ずつに区切って計算するので, 
+ * 行数が何百万あっても作業中の列の一部がキャッシュに載ったまま計算が進む. 
+ */
+class QRDecomposition {
+    /**
+     * パネルの幅. 
+     */
+    static final int NB = 32;
+    /**
+     * 行方向に区切る長さ. 
+     */
+    static final int CHUNK = 512;
+    /**
+     * 行数, 列数, 反射の数（{@code min(m, n)}）. 
+     */
+    final int m, n, k;
+    /**
+     * Householder ベクトルと R を詰めた列優先の配列. 
+     */
+    final double [] a;
+    /**
+     * R の対角要素. 
+     */
+    final double [] rdiag;
+    /**
+     * 各反射の係数 {@code tau}（{@code H = I - tau v v^T}）. 
+     */
+    final double [] tau;
+    /**
+     * パネルごとの compact WY 形式の上三角行列 T（{@code NB}×{@code NB} の行優先）. 
+     */
+    final double [][] ts;
+
+    /**
+     * 与えられた行列を QR 分解する. 元の行列は変更しない. 
+     * @param mat 分解する行列
+     */
+    QRDecomposition(Matrix mat) {
+        this.m = mat.m;
+        this.n = mat.n;
+        this.k = Math.min(m, n);
+        this.a = new double[m * n];
+        for(int i = 0; i < m; i++) {
+            for(int j = 0; j < n; j++) {
+                a[j * m + i] = mat.get(i, j);
+            }
+        }
+        this.rdiag = new double[k];
+        this.tau = new double[k];
+        this.ts = new double[(k + NB - 1) / NB][];
+        MatrixKernels kern = Matrix.kernels;
+        for(int k0 = 0; k0 < k; k0 += NB) {
+            int k1 = Math.min(k, k0 + NB);
+            // パネルの中は 1 本ずつ反射を作って, パネルの残りの列に掛ける
+            for(int c = k0; c < k1; c++) {
+                int co = c * m;
+                double alpha = a[co + c];
+                double xnorm = Math.sqrt(kern.dot(m - c - 1, a, co + c + 1, a, co + c + 1));
+                if(xnorm == 0.0) {
+                    tau[c] = 0.0;
+                    rdiag[c] = alpha;
+                } else {
+                    double beta = -Math.copySign(Math.hypot(alpha, xnorm), alpha);
+                    tau[c] = (beta - alpha) / beta;
+                    kern.scale(m - c - 1, 1 / (alpha - beta), a, co + c + 1, a, co + c + 1);
+                    rdiag[c] = beta;
+                }
+                a[co + c] = 1.0;
+                if(tau[c] == 0.0) continue;
+                for(int j = c + 1; j < k1; j++) {
+                    double w = tau[c] * kern.dot(m - c, a, co + c, a, j * m + c);
+                    kern.axpy(m - c, -w, a, co + c, a, j * m + c);
+                }
+            }
+            ts[k0 / NB] = formT(k0, k1);
+            // 残りの列を Q^T で更新
+            if(k1 < n) apply(k0, k1, a, k1, n, true);
+        }
+    }
+
+    /**
+     * パネルの反射をまとめた上三角行列 T を作る（LAPACK の dlarft, 前向き, 列ごと）. 
+     * {@code T[0:i, i] = -tau_i T[0:i, 0:i] (V[:, 0:i]^T v_i)}, {@code T[i, i] = tau_i}. 
+     * @param k0 パネルの最初の列
+     * @param k1 パネルの最後の列の次
+     * @return {@code (k1-k0)}×{@code (k1-k0)} の行優先の上三角行列
+     */
+    double [] formT(int k0, int k1) {
+        MatrixKernels kern = Matrix.kernels;
+        int b = k1 - k0;
+        double [] t = new double[b * b];
+        double [] z = new double[b];
+        for(int i = 0; i < b; i++) {
+            int c = k0 + i;
+            // v_i は c 行目より上が 0 なので, 内積は c 行目から
+            for(int p = 0; p < i; p++) {
+                z[p] = kern.dot(m - c, a, (k0 + p) * m + c, a, c * m + c);
+            }
+            for(int p = 0; p < i; p++) {
+                double s = 0;
+                for(int q = p; q < i; q++) s += t[p * b + q] * z[q];
+                t[p * b + i] = -tau[c] * s;
+            }
+            t[i * b + i] = tau[c];
+        }
+        return t;
+    }
+
+    /**
+     * パネルの反射を列優先の配列の列 {@code j0..j1-1} にまとめて掛ける. 
+     * {@code trans} なら {@code Q_b^T C = C - V T^T (V^T C)}, そうでなければ {@code Q_b C = C - V T (V^T C)}. 
+     * {@code c} の列の長さ（行数）は {@code m}. 
+     * @param k0 パネルの最初の列
+     * @param k1 パネルの最後の列の次
+     * @param c 掛けられる列優先の配列
+     * @param j0 最初の列
+     * @param j1 最後の列の次
+     * @param trans 転置を掛けるなら {@code true}
+     */
+    void apply(int k0, int k1, double [] c, int j0, int j1, boolean trans) {
+        MatrixKernels kern = Matrix.kernels;
+        int b = k1 - k0, nc = j1 - j0;
+        double [] t = ts[k0 / NB];
+        // W = V^T C（b×nc, 行優先）を行の区切りごとに足し込む
+        double [] w = new double[b * nc];
+        for(int r0 = k0; r0 < m; r0 += CHUNK) {
+            int r1 = Math.min(m, r0 + CHUNK);
+            for(int j = 0; j < nc; j++) {
+                int co = (j0 + j) * m;
+                for(int p = 0; p < b; p++) {
+                    int s = Math.max(r0, k0 + p);
+                    if(s < r1) w[p * nc + j] += kern.dot(r1 - s, a, (k0 + p) * m + s, c, co + s);
+                }
+            }
+        }
+        // W = T^T W または T W（T は上三角）
+        double [] tw = new double[b * nc];
+        for(int p = 0; p < b; p++) {
+            for(int q = 0; q < b; q++) {
+                double tpq = trans ? t[q * b + p] : t[p * b + q];
+                if(tpq != 0) kern.axpy(nc, tpq, w, q * nc, tw, p * nc);
+            }
+        }
+        // C -= V W を行の区切りごとに
+        for(int r0 = k0; r0 < m; r0 += CHUNK) {
+            int r1 = Math.min(m, r0 + CHUNK);
+            for(int j = 0; j < nc; j++) {
+                int co = (j0 + j) * m;
+                for(int p = 0; p < b; p++) {
+                    int s = Math.max(r0, k0 + p);
+                    double v = tw[p * nc + j];
+                    if(s < r1 && v != 0) kern.axpy(r1 - s, -v, a, (k0 + p) * m + s, c, co + s);
+                }
+            }
+        }
+    }
+
+    /**
+     * 上三角行列 R を新たに生成して返す. 
+     * @return {@code k}×{@code n} の上三角行列
+     */
+    Matrix r() {
+        Matrix ret = new Matrix(k, n);
+        for(int i = 0; i < k; i++) {
+            ret.vals[i * n + i] = rdiag[i];
+            for(int j = i + 1; j < n; j++) {
+                ret.vals[i * n + j] = a[j * m + i];
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * 列が正規直交な行列 Q（thin Q）を新たに生成して返す. 
+     * 単位行列の最初の {@code k} 列に, 後ろのパネルから順に反射を掛けて作る. 
+     * @return {@code m}×{@code k} の行列（列優先）
+     */
+    Matrix q() {
+        double [] qv = new double[m * k];
+        for(int i = 0; i < k; i++) qv[i * m + i] = 1.0;
+        for(int k0 = (k - 1) / NB * NB; k0 >= 0; k0 -= NB) {
+            apply(k0, Math.min(k, k0 + NB), qv, k0, k, false);
+        }
+        return new Matrix(qv, null, 0, m, k, 1, m, false);
+    }
+
+    /**
+     * 最小二乗問題 {@code min |AX - B|} を解く. 
+     * {@code Q^T B} を作り, その上 {@code n} 行について R で後退代入する. 
+     * @param b 右辺の {@code m}×{@code p} 行列
+     * @return 解 {@code X}（{@code n}×{@code p}）. 横長の行列の場合や, 列が一次従属（R の対角が 0）の場合, 
+     *         サイズが合わない場合には {@code null}. 
+     */
+    Matrix solve(Matrix b) {
+        if(m < n || b == null || b.m != m) return null;
+        double rmax = 0;
+        for(int i = 0; i < n; i++) rmax = Math.max(rmax, Math.abs(rdiag[i]));
+        for(int i = 0; i < n; i++) {
+            if(Math.abs(rdiag[i]) <= rmax * m * Math.ulp(1.0)) return null;
+        }
+        int p = b.n;
+        // Q^T B（列優先）
+        double [] y = new double[m * p];
+        for(int i = 0; i < m; i++) {
+            for(int j = 0; j < p; j++) {
+                y[j * m + i] = b.get(i, j);
+            }
+        }
+        for(int k0 = 0; k0 < k; k0 += NB) {
+            apply(k0, Math.min(k, k0 + NB), y, 0, p, true);
+        }
+        // R X = (Q^T B) の上 n 行を行ごとの axpy で後退代入
+        Matrix x = new Matrix(n, p);
+        double [] xv = x.vals;
+        for(int i = 0; i < n; i++) {
+            for(int j = 0; j < p; j++) {
+                xv[i * p + j] = y[j * m + i];
+            }
+        }
+        MatrixKernels kern = Matrix.kernels;
+        for(int c = n - 1; c >= 0; c--) {
+            kern.scale(p, 1 / rdiag[c], xv, c * p, xv, c * p);
+            for(int i = 0; i < c; i++) {
+                double r = a[c * m + i];
+                if(r != 0) kern.axpy(p, -r, xv, c * p, xv, i * p);
+            }
+        }
+        return x;
+    }
+}
+
+/**
+ * 片側 Jacobi 法（Hestenes 法）による特異値分解 {@code A = U Σ V^T}. 
+ * 列どうしが直交するまで, 2 本の列の組に右から回転を掛けることを繰り返す. 
+ * 直交したときの列のノルムが特異値, 正規化した列が左特異ベクトル, 掛けた回転の積が右特異ベクトルになる. <br />
+ * 一巡（スイープ）の中の列の組は総当たり戦の組み合わせ（round-robin）で並べるので, 
+ * 各ラウンドの組は互いに別の列しか触らず, {@code MatrixPool} で並列に回転できる（{@code JacobiRound}）. <br />
+ * 縦長の行列はまず QR 分解して, 正方の R に対して Jacobi 法を行う（{@code U = Q U_R}）. 
+ * 横長の行列は転置してから分解し, U と V を入れ替える. <br />
+ * 上位 {@code top} 個だけを求めるときは, ノルムの大きい {@code top} 本の列が残りのすべての列と直交した時点でスイープを打ち切る. 
+ */
+class SingularValueDecomposition {
+    /**
+     * スイープの回数の上限. 
+     */
+    static final int MAX_SWEEPS = 60;
+    /**
+     * 乱択アルゴリズムで {@code k} より余分に取る列の数. 
+     */
+    static final int OVERSAMPLE = 10;
+    /**
+     * 行数, 列数, 求めた特異値の数. 
+     */
+    final int m, n, k;
+    /**
+     * 特異値（降順）. 
+     */
+    final double [] s;
+    /**
+     * 左特異ベクトルを列に並べた {@code m}×{@code k} の行列. 特異ベクトルを求めないときは {@code null}. 
+     */
+    final Matrix u;
+    /**
+     * 右特異ベクトルを列に並べた {@code n}×{@code k} の行列. 特異ベクトルを求めないときは {@code null}. 
+     */
+    final Matrix v;
+    /**
+     * スイープの回数の上限までに収束したときに {@code true}. 
+     */
+    final boolean converged;
+
+    /**
+     * 与えられた行列を特異値分解する. 元の行列は変更しない. 
+     * @param mat 分解する行列
+     * @param top 求める特異値の数. {@code min(m, n)} 以上か 0 以下ならすべて求める
+     * @param vectors 特異ベクトルも求めるなら {@code true}
+     */
+    SingularValueDecomposition(Matrix mat, int top, boolean vectors) {
+        this.m = mat.m;
+        this.n = mat.n;
+        int p = Math.min(m, n);
+        this.k = (top <= 0 || top > p) ? p : top;
+        // 縦長（rows >= cols）の向きにそろえる
+        boolean trans = m < n;
+        Matrix a = trans ? mat.t() : mat;
+        int rows = a.m, cols = a.n;
+        // Jacobi 法を掛ける列優先の正方（または縦長）の配列
+        double [] g;
+        QRDecomposition f = null;
+        if(rows > cols) {
+            f = new QRDecomposition(a);
+            Matrix r = f.r();
+            g = new double[cols * cols];
+            for(int i = 0; i < cols; i++) {
+                for(int j = i; j < cols; j++) {
+                    g[j * cols + i] = r.vals[i * cols + j];
+                }
+            }
+            rows = cols;
+        } else {
+            g = new double[rows * cols];
+            for(int i = 0; i < rows; i++) {
+                for(int j = 0; j < cols; j++) {
+                    g[j * rows + i] = a.get(i, j);
+                }
+            }
+        }
+        double [] w = null;
+        if(vectors) {
+            w = new double[cols * cols];
+            for(int j = 0; j < cols; j++) w[j * cols + j] = 1.0;
+        }
+        this.converged = jacobi(g, rows, cols, w, k);
+        // 列のノルムの降順に並べる
+        double [] norms = new double[cols];
+        Integer [] order = new Integer[cols];
+        for(int j = 0; j < cols; j++) {
+            norms[j] = Math.sqrt(Matrix.kernels.dot(rows, g, j * rows, g, j * rows));
+            order[j] = j;
+        }
+        Arrays.sort(order, (x, y) -> Double.compare(norms[y], norms[x]));
+        this.s = new double[k];
+        for(int i = 0; i < k; i++) s[i] = norms[order[i]];
+        if(!vectors) {
+            this.u = null;
+            this.v = null;
+            return;
+        }
+        // 左特異ベクトル（正規化した列）と右特異ベクトル（回転の積の列）
+        Matrix ul = new Matrix(rows, k, true);
+        Matrix vr = new Matrix(cols, k, true);
+        for(int i = 0; i < k; i++) {
+            int j = order[i];
+            if(s[i] > 0) Matrix.kernels.scale(rows, 1 / s[i], g, j * rows, ul.vals, i * rows);
+            System.arraycopy(w, j * cols, vr.vals, i * cols, cols);
+        }
+        if(f != null) ul = f.q().mul(ul);
+        this.u = trans ? vr : ul;
+        this.v = trans ? ul : vr;
+    }
+
+    /**
+     * 分解の結果をそのまま受け取るコンストラクタ. 
+     */
+    SingularValueDecomposition(int m, int n, double [] s, Matrix u, Matrix v, boolean converged) {
+        this.m = m;
+        this.n = n;
+        this.k = s.length;
+        this.s = s;
+        this.u = u;
+        this.v = v;
+        this.converged = converged;
+    }
+
+    /**
+     * 乱択アルゴリズムで上位 {@code k} 個の特異値（と特異ベクトル）を近似的に求める（Halko, Martinsson, Tropp の方法）. 
+     * <ol>
+     * <li>ガウス乱数の {@code n}×{@code l} 行列 Ω（{@code l = k + OVERSAMPLE}）で {@code Y = A Ω} を作る. </li>
+     * <li>{@code q} 回の冪乗反復 {@code Y = A (A^T Q(Y))} で大きい特異値の方向を際立たせる（毎回 QR で直交化する）. </li>
+     * <li>{@code Y} の QR 分解の Q で {@code B = Q^T A}（{@code l}×{@code n}）を作り, 小さな B を Jacobi 法で特異値分解する. </li>
+     * <li>{@code U = Q U_B}. </li>
+     * </ol>
+     * 計算の大部分は行列積（{@code Matrix#mul}, 並列の GEMM）で, 全体で {@code O(mnk)} になる. 
+     * 乱数は与えた種から作るので, 同じ種なら同じ結果になる. 
+     * @param a 分解する行列
+     * @param k 求める特異値の数
+     * @param q 冪乗反復の回数
+     * @param seed 乱数の種
+     * @param vectors 特異ベクトルも求めるなら {@code true}
+     * @return 上位 {@code k} 個の特異値分解
+     */
+    static SingularValueDecomposition randomized(Matrix a, int k, int q, long seed, boolean vectors) {
+        int m = a.m, n = a.n;
+        k = Math.min(k, Math.min(m, n));
+        int l = Math.min(k + OVERSAMPLE, Math.min(m, n));
+        Random rnd = new Random(seed);
+        Matrix omega = new Matrix(n, l);
+        for(int i = 0; i < n * l; i++) omega.vals[i] = rnd.nextGaussian();
+        Matrix y = a.mul(omega);
+        Matrix at = a.t();
+        for(int it = 0; it < q; it++) {
+            Matrix z = at.mul(y.qr().q());
+            y = a.mul(z.qr().q());
+        }
+        Matrix qm = y.qr().q();
+        Matrix b = qm.t().mul(a);
+        SingularValueDecomposition d = new SingularValueDecomposition(b, k, vectors);
+        double [] sk = Arrays.copyOf(d.s, k);
+        if(!vectors) return new SingularValueDecomposition(m, n, sk, null, null, d.converged);
+        return new SingularValueDecomposition(m, n, sk, qm.mul(d.u), d.v, d.converged);
+    }
+
+    /**
+     * 片側 Jacobi 法のスイープを収束するまで繰り返す. 
+     * @param g 列優先の {@code rows}×{@code cols} の配列. 列どうしが直交するまで回転する
+     * @param rows 行数
+     * @param cols 列数
+     * @param w 回転の積を溜める列優先の {@code cols}×{@code cols} の配列（単位行列で渡す）. 要らなければ {@code null}
+     * @param top 収束を判定する上位の列の数（すべてなら {@code cols}）
+     * @return 収束したら {@code true}
+     */
+    static boolean jacobi(double [] g, int rows, int cols, double [] w, int top) {
+        // 総当たり戦の組み合わせ. 列の数が奇数なら番兵 cols を加えて偶数にする
+        int np = (cols + 1) / 2 * 2;
+        int [] seat = new int[np];
+        for(int i = 0; i < np; i++) seat[i] = i;
+        int [] pp = new int[np / 2], qq = new int[np / 2];
+        boolean [] rotated = new boolean[np / 2];
+        boolean [] inTop = new boolean[np];
+        double tol = Math.ulp(1.0) * rows;
+        double [] norms = new double[cols];
+        Integer [] order = new Integer[cols];
+        for(int sweep = 0; sweep < MAX_SWEEPS; sweep++) {
+            // 上位の列を決める（すべてなら全部）
+            Arrays.fill(inTop, top >= cols);
+            if(top < cols) {
+                for(int j = 0; j < cols; j++) {
+                    norms[j] = Matrix.kernels.dot(rows, g, j * rows, g, j * rows);
+                    order[j] = j;
+                }
+                Arrays.sort(order, (x, y) -> Double.compare(norms[y], norms[x]));
+                for(int i = 0; i < top; i++) inTop[order[i]] = true;
+            }
+            boolean done = true;
+            for(int round = 0; round < np - 1; round++) {
+                int cnt = 0;
+                for(int i = 0; i < np / 2; i++) {
+                    int p = seat[i], q = seat[np - 1 - i];
+                    if(p >= cols || q >= cols) continue;  // 番兵との組は休み
+                    pp[cnt] = p;
+                    qq[cnt] = q;
+                    cnt++;
+                }
+                Arrays.fill(rotated, 0, cnt, false);
+                if(MatrixPool.worthSplitting((long)cnt * rows * 6)) {
+                    MatrixPool.invoke(new JacobiRound(g, rows, w, cols, pp, qq, rotated, tol, 0, cnt));
+                } else {
+                    rotate(g, rows, w, cols, pp, qq, rotated, tol, 0, cnt);
+                }
+                for(int i = 0; i < cnt; i++) {
+                    if(rotated[i] && (inTop[pp[i]] || inTop[qq[i]])) done = false;
+                }
+                // 最初の席を固定して残りを 1 つずつ回す
+                int last = seat[np - 1];
+                System.arraycopy(seat, 1, seat, 2, np - 2);
+                seat[1] = last;
+            }
+            if(done) return true;
+        }
+        return false;
+    }
+
+    /**
+     * ひとつのラウンドのうち, 組 {@code i0..i1-1} の列に回転を掛ける. 
+     * それぞれの組の列が直交していなければ, 直交させる Jacobi 回転を {@code g} と {@code w} の列に掛ける. 
+     * @param g 列優先の配列
+     * @param rows {@code g} の行数
+     * @param w 回転の積を溜める配列（{@code null} なら溜めない）
+     * @param wr {@code w} の行数
+     * @param pp 組の片方の列
+     * @param qq 組のもう片方の列
+     * @param rotated 回転を掛けた組に {@code true} を入れる配列
+     * @param tol 直交しているとみなす相対的な内積の大きさ
+     * @param i0 最初の組
+     * @param i1 最後の組の次
+     */
+    static void rotate(double [] g, int rows, double [] w, int wr, int [] pp, int [] qq,
+                       boolean [] rotated, double tol, int i0, int i1) {
+        MatrixKernels kern = Matrix.kernels;
+        for(int i = i0; i < i1; i++) {
+            int po = pp[i] * rows, qo = qq[i] * rows;
+            double alpha = kern.dot(rows, g, po, g, po);
+            double beta = kern.dot(rows, g, qo, g, qo);
+            double gamma = kern.dot(rows, g, po, g, qo);
+            if(alpha == 0 || beta == 0 || Math.abs(gamma) <= tol * Math.sqrt(alpha * beta)) continue;
+            double zeta = (beta - alpha) / (2 * gamma);
+            double t = Math.copySign(1.0, zeta) / (Math.abs(zeta) + Math.sqrt(1 + zeta * zeta));
+            double c = 1 / Math.sqrt(1 + t * t);
+            double sn = c * t;
+            rot(g, po, qo, rows, c, sn);
+            if(w != null) rot(w, pp[i] * wr, qq[i] * wr, wr, c, sn);
+            rotated[i] = true;
+        }
+    }
+
+    /**
+     * 配列の 2 つの並び x, y に回転 {@code x' = c x - s y}, {@code y' = s x + c y} を掛ける. 
+     */
+    static void rot(double [] a, int xo, int yo, int len, double c, double sn) {
+        for(int r = 0; r < len; r++) {
+            double x = a[xo + r], y = a[yo + r];
+            a[xo + r] = c * x - sn * y;
+            a[yo + r] = sn * x + c * y;
+        }
+    }
+
+    /**
+     * 数値的な階数を決めるしきい値を返す. 
+     * @return {@code max(m, n) * eps * σ_max}
+     */
+    double tolerance() {
+        return k == 0 ? 0 : Math.max(m, n) * Math.ulp(s[0]);
+    }
+
+    /**
+     * 数値的な階数を返す. 
+     * @return しきい値より大きい特異値の数
+     */
+    int rank() {
+        double tol = tolerance();
+        int r = 0;
+        while(r < k && s[r] > tol) r++;
+        return r;
+    }
+
+    /**
+     * 特異値を並べた対角行列を新たに生成して返す. 
+     * @return {@code k}×{@code k} の対角行列
+     */
+    Matrix sigma() {
+        Matrix ret = new Matrix(k, k);
+        for(int i = 0; i < k; i++) ret.vals[i * k + i] = s[i];
+        return ret;
+    }
+
+    /**
+     * 擬似逆行列 {@code V Σ^+ U^T} を新たに生成して返す. 
+     * しきい値以下の特異値は 0 とみなす. 特異ベクトルを求めていない場合には使えない. 
+     * @return {@code n}×{@code m} の行列
+     */
+    Matrix pinv() {
+        int r = rank();
+        if(r == 0) return new Matrix(n, m);
+        Matrix vs = new Matrix(n, r, true);
+        for(int i = 0; i < r; i++) {
+            for(int j = 0; j < n; j++) {
+                vs.vals[i * n + j] = v.get(j, i) / s[i];
+            }
+        }
+        return vs.mul(u.slice(0, m, 0, r).t());
+    }
+}
+
+/**
+ * 片側 Jacobi 法のひとつのラウンドの組を分けて並列に回転する仕事. 
+ * 同じラウンドの組は互いに別の列しか触らないので, 同期は要らない. 
+ */
+class JacobiRound extends RecursiveAction {
+    private static final long serialVersionUID = 1L;
+    final double [] g, w;
+    final int rows, wr, i0, i1;
+    final int [] pp, qq;
+    final boolean [] rotated;
+    final double tol;
+    JacobiRound(double [] g, int rows, double [] w, int wr, int [] pp, int [] qq,
+                boolean [] rotated, double tol, int i0, int i1) {
+        this.g = g;
+        this.rows = rows;
+        this.w = w;
+        this.wr = wr;
+        this.pp = pp;
+        this.qq = qq;
+        this.rotated = rotated;
+        this.tol = tol;
+        this.i0 = i0;
+        this.i1 = i1;
+    }
+    protected void compute() {
+        if((long)(i1 - i0) * rows * 6 <= MatrixPool.threshold || i1 - i0 <= 1) {
+            SingularValueDecomposition.rotate(g, rows, w, wr, pp, qq, rotated, tol, i0, i1);
+        } else {
+            int mid = (i0 + i1) >>> 1;
+            invokeAll(new JacobiRound(g, rows, w, wr, pp, qq, rotated, tol, i0, mid),
+                      new JacobiRound(g, rows, w, wr, pp, qq, rotated, tol, mid, i1));
+        }
+    }
+}
+
+/**
+ * 行列ベクトル積 {@code y = A x} だけを通して使う正方行列（線形作用素）. 
+ * 行列の要素を直接見ない反復解法（{@code KrylovEigenSolver} など）はこのインターフェースだけに頼るので, 
+ * 密行列でなくても行列ベクトル積さえ計算できれば使える. 
+ */
+interface LinearOperator {
+    /**
+     * 作用素の次元（正方行列のサイズ）を返す. 
+     * @return 次元
+     */
+    int dim();
+    /**
+     * {@code y = A x} を計算する. 
+     * @param x 長さ {@link #dim()} の入力ベクトル. 変更しない
+     * @param y 長さ {@link #dim()} の出力ベクトル. 上書きする
+     */
+    void apply(double [] x, double [] y);
+    /**
+     * 作用素が対称かどうかを返す. 対称なら Lanczos 法を使える. 
+     * @return 対称なら {@code true}
+     */
+    boolean symmetric();
+}
+
+/**
+ * 陰的リスタート付き Arnoldi 法（対称な作用素では Lanczos 法）による, 絶対値の大きい方から {@code k} 個の固有値の計算. 
+ * 作用素には行列ベクトル積（{@link LinearOperator#apply}）でしか触らない. <br />
+ * 長さ {@code p}（{@code max(2k+1, k+30)}）の Krylov 部分空間の正規直交基底 V と, 
+ * そこへの射影 {@code H = V^T A V}（Arnoldi 法では上 Hessenberg 行列, Lanczos 法では対称三重対角行列）を作り, 
+ * H の固有値のうち要らないもの（絶対値の小さい方の {@code p - k} 個）をシフトにした QR ステップを H に施して, 
+ * 要る固有値に対応する {@code k} 次元の部分空間だけを残して次の基底を継ぎ足す（陰的リスタート, 厳密シフト）. 
+ * 複素数のシフトは共役の対をまとめて実数のダブルシフトにする. <br />
+ * 基底は毎回 2 回の古典 Gram-Schmidt で直交化する. 
+ * Ritz 値 λ の残差 {@code |A x - λ x|} は {@code β |y_p|}（β は次の基底の長さ, {@code y_p} は H の固有ベクトルの最後の成分）
+ * で見積もり, これがすべて {@code tol |λ|} 以下になったら収束とする. 
+ */
+class KrylovEigenSolver {
+    /**
+     * リスタートの回数の上限. 
+     */
+    static final int MAX_RESTARTS = 300;
+    /**
+     * 収束判定の相対誤差. 
+     */
+    static double tol = 1e-10;
+    /**
+     * 求めた固有値の数（{@code k}, ただし {@code k} 番目が共役複素数の対の片方なら {@code k + 1}）. 
+     */
+    final int k;
+    /**
+     * 固有値の実部（絶対値の降順）. 
+     */
+    final double [] re;
+    /**
+     * 固有値の虚部. 共役複素数の対は {@code im[i] > 0}, {@code im[i+1] = -im[i]} の順に並ぶ. 
+     */
+    final double [] im;
+    /**
+     * リスタートの回数の上限までに収束したときに {@code true}. 
+     */
+    final boolean converged;
+    /**
+     * 使った行列ベクトル積の回数. 
+     */
+    int matvecs = 0;
+
+    /**
+     * 作用素の絶対値の大きい方から {@code k} 個の固有値を求める. 
+     * @param op 作用素
+     * @param nev 求める固有値の数（1 以上 {@code op.dim()} 以下）
+     */
+    KrylovEigenSolver(LinearOperator op, int nev) {
+        int n = op.dim();
+        boolean sym = op.symmetric();
+        int p = Math.min(n, Math.max(2 * nev + 1, nev + 30));
+        MatrixKernels kern = Matrix.kernels;
+        double [][] v = new double[p + 1][];
+        double [] h = new double[p * p];  // 行優先の p×p
+        double [] w = new double[n];
+        Random rnd = new Random(1);
+        // 最初の基底は乱数のベクトル
+        v[0] = new double[n];
+        for(int i = 0; i < n; i++) v[0][i] = rnd.nextDouble() - 0.5;
+        kern.scale(n, 1 / Math.sqrt(kern.dot(n, v[0], 0, v[0], 0)), v[0], 0, v[0], 0);
+        int start = 0;
+        double beta = 0;
+        int [] wanted = null;
+        double [] hr = null, hi = null;
+        boolean ok = false;
+        for(int restart = 0; restart < MAX_RESTARTS; restart++) {
+            // 基底を start から p まで継ぎ足す
+            beta = extend(op, sym, v, h, p, start, w, rnd);
+            // H の固有値を絶対値の降順に並べる
+            Matrix hm = new Matrix(p, p);
+            System.arraycopy(h, 0, hm.vals, 0, p * p);
+            EigenDecomposition e = new EigenDecomposition(hm);
+            if(!e.converged) break;
+            hr = e.re;
+            hi = e.im;
+            wanted = order(hr, hi, nev);
+            // 残差の見積もりで収束を判定する
+            ok = true;
+            for(int i : wanted) {
+                double lam = Math.hypot(hr[i], hi[i]);
+                double res = beta * lastComponent(h, p, hr[i], hi[i]);
+                if(res > tol * Math.max(lam, Math.ulp(1.0))) {
+                    ok = false;
+                    break;
+                }
+            }
+            if(ok || p == n) {
+                ok = true;
+                break;
+            }
+            int kw = wanted.length;
+            // 要らない固有値をシフトにして H に QR ステップを施し, その直交行列を Qt に溜める
+            Matrix hq = hm;
+            Matrix qt = Matrix.eye(p);
+            boolean [] isWanted = new boolean[p];
+            for(int i : wanted) isWanted[i] = true;
+            for(int i = 0; i < p; i++) {
+                if(isWanted[i] || hi[i] < 0) continue;
+                Matrix sh;
+                if(hi[i] == 0) {
+                    // H - μI
+                    sh = new Matrix(hq);
+                    for(int j = 0; j < p; j++) sh.vals[j * p + j] -= hr[i];
+                } else {
+                    // (H - μI)(H - μ'I) = H^2 - 2 Re(μ) H + |μ|^2 I
+                    sh = hq.mul(hq);
+                    sh.axpy(-2 * hr[i], hq);
+                    double mod2 = hr[i] * hr[i] + hi[i] * hi[i];
+                    for(int j = 0; j < p; j++) sh.vals[j * p + j] += mod2;
+                }
+                Matrix q = sh.qr().q();
+                hq = q.t().mul(hq).mul(q);
+                qt = qt.mul(q);
+            }
+            // 新しい基底 V Qt の最初の kw+1 本と残差 f = v_kw * H(kw, kw-1) + f_p * Qt(p-1, kw-1)
+            double hk = hq.get(kw, kw - 1);
+            double sigma = qt.get(p - 1, kw - 1);
+            double [][] nv = new double[kw + 1][];
+            for(int j = 0; j <= kw; j++) {
+                nv[j] = new double[n];
+                for(int i = 0; i < p; i++) {
+                    double c = qt.get(i, j);
+                    if(c != 0) kern.axpy(n, c, v[i], 0, nv[j], 0);
+                }
+            }
+            double [] f = nv[kw];
+            kern.scale(n, hk, f, 0, f, 0);
+            kern.axpy(n, beta * sigma, v[p], 0, f, 0);
+            double fn = Math.sqrt(kern.dot(n, f, 0, f, 0));
+            // H の左上 kw×kw を残す
+            Arrays.fill(h, 0.0);
+            for(int i = 0; i < kw; i++) {
+                for(int j = 0; j < kw; j++) {
+                    h[i * p + j] = hq.get(i, j);
+                }
+            }
+            if(sym) tridiagonalize(h, p, kw);
+            for(int j = 0; j < kw; j++) v[j] = nv[j];
+            if(fn > 0) {
+                kern.scale(n, 1 / fn, f, 0, f, 0);
+                v[kw] = f;
+                h[kw * p + kw - 1] = fn;
+            } else {
+                v[kw] = null;  // extend が乱数のベクトルで補う
+            }
+            start = kw;
+        }
+        this.converged = ok;
+        this.k = wanted == null ? 0 : wanted.length;
+        this.re = new double[k];
+        this.im = new double[k];
+        for(int i = 0; i < k; i++) {
+            re[i] = hr[wanted[i]];
+            im[i] = hi[wanted[i]];
+        }
+    }
+
+    /**
+     * Arnoldi（Lanczos）の基底を {@code v[start]} から {@code v[p]} まで作り, H の列 {@code start..p-1} を埋める. 
+     * 基底が作れなくなった（不変部分空間に達した）ときは, それまでの基底と直交する乱数のベクトルで続ける. 
+     * @return 最後の残差の長さ β（{@code A v_{p-1} - V h = β v_p}）
+     */
+    double extend(LinearOperator op, boolean sym, double [][] v, double [] h, int p, int start,
+                  double [] w, Random rnd) {
+        int n = op.dim();
+        MatrixKernels kern = Matrix.kernels;
+        if(v[start] == null) v[start] = orthogonalRandom(v, start, n, rnd);
+        double beta = 0;
+        double [] c = new double[p];
+        for(int j = start; j < p; j++) {
+            op.apply(v[j], w);
+            matvecs++;
+            // 2 回の古典 Gram-Schmidt
+            Arrays.fill(c, 0.0);
+            for(int pass = 0; pass < 2; pass++) {
+                for(int i = 0; i <= j; i++) {
+                    double d = kern.dot(n, v[i], 0, w, 0);
+                    kern.axpy(n, -d, v[i], 0, w, 0);
+                    c[i] += d;
+                }
+            }
+            if(sym) {
+                // 対称なら H は三重対角. 理論上 0 になる成分は捨てて対称にそろえる
+                h[j * p + j] = c[j];
+                if(j > 0) h[(j - 1) * p + j] = h[j * p + j - 1];
+            } else {
+                for(int i = 0; i <= j; i++) h[i * p + j] = c[i];
+            }
+            beta = Math.sqrt(kern.dot(n, w, 0, w, 0));
+            double [] next;
+            if(beta > 0 && beta > Math.ulp(1.0) * Math.sqrt(kern.dot(j + 1, c, 0, c, 0))) {
+                next = new double[n];
+                kern.scale(n, 1 / beta, w, 0, next, 0);
+            } else {
+                // 不変部分空間に達した
+                beta = 0;
+                next = (j + 1 < n) ? orthogonalRandom(v, j + 1, n, rnd) : new double[n];
+            }
+            v[j + 1] = next;
+            if(j + 1 < p) h[(j + 1) * p + j] = beta;
+        }
+        return beta;
+    }
+
+    /**
+     * {@code v[0..j-1]} と直交する, 長さ 1 の乱数のベクトルを返す. 
+     */
+    static double [] orthogonalRandom(double [][] v, int j, int n, Random rnd) {
+        MatrixKernels kern = Matrix.kernels;
+        double [] x = new double[n];
+        for(int i = 0; i < n; i++) x[i] = rnd.nextDouble() - 0.5;
+        for(int pass = 0; pass < 2; pass++) {
+            for(int i = 0; i < j; i++) {
+                kern.axpy(n, -kern.dot(n, v[i], 0, x, 0), v[i], 0, x, 0);
+            }
+        }
+        kern.scale(n, 1 / Math.sqrt(kern.dot(n, x, 0, x, 0)), x, 0, x, 0);
+        return x;
+    }
+
+    /**
+     * 対称な場合の H の左上 {@code kw}×{@code kw} を, 丸め誤差を捨てて対称三重対角にそろえる. 
+     */
+    static void tridiagonalize(double [] h, int p, int kw) {
+        for(int i = 0; i < kw; i++) {
+            for(int j = 0; j < kw; j++) {
+                if(Math.abs(i - j) > 1) h[i * p + j] = 0.0;
+            }
+        }
+        for(int i = 1; i < kw; i++) {
+            double s = (h[i * p + i - 1] + h[(i - 1) * p + i]) / 2;
+            h[i * p + i - 1] = s;
+            h[(i - 1) * p + i] = s;
+        }
+    }
+
+    /**
+     * 絶対値の大きい方から {@code nev} 個の固有値の番号を返す. 
+     * 最後が共役複素数の対の片方なら, もう片方も加える. 対は虚部が正の方を先にする. 
+     */
+    static int [] order(double [] re, double [] im, int nev) {
+        int p = re.length;
+        Integer [] idx = new Integer[p];
+        for(int i = 0; i < p; i++) idx[i] = i;
+        Arrays.sort(idx, (x, y) -> {
+                int c = Double.compare(Math.hypot(re[y], im[y]), Math.hypot(re[x], im[x]));
+                return c != 0 ? c : Double.compare(im[y], im[x]);
+            });
+        int kw = Math.min(nev, p);
+        if(kw < p && im[idx[kw - 1]] > 0) kw++;
+        int [] ret = new int[kw];
+        for(int i = 0; i < kw; i++) ret[i] = idx[i];
+        return ret;
+    }
+
+    /**
+     * 行優先の {@code p}×{@code p} 行列 H の固有値 {@code λ = lr + i li} に対する固有ベクトル y の, 
+     * 最後の成分の大きさ {@code |y_p| / |y|} を複素数の逆反復で求める. 
+     */
+    static double lastComponent(double [] h, int p, double lr, double li) {
+        double [] ar = new double[p * p], ai = new double[p * p];
+        double norm = 0;
+        for(int i = 0; i < p * p; i++) {
+            ar[i] = h[i];
+            norm = Math.max(norm, Math.abs(h[i]));
+        }
+        for(int i = 0; i < p; i++) {
+            ar[i * p + i] -= lr;
+            ai[i * p + i] = -li;
+        }
+        double tiny = Math.max(norm, Math.hypot(lr, li)) * Math.ulp(1.0);
+        // 部分ピボット選択付きの複素 LU 分解
+        int [] piv = new int[p];
+        for(int c = 0; c < p; c++) {
+            int r = c;
+            double best = -1;
+            for(int i = c; i < p; i++) {
+                double a = Math.hypot(ar[i * p + c], ai[i * p + c]);
+                if(a > best) {
+                    best = a;
+                    r = i;
+                }
+            }
+            piv[c] = r;
+            if(r != c) {
+                for(int j = 0; j < p; j++) {
+                    double t = ar[c * p + j]; ar[c * p + j] = ar[r * p + j]; ar[r * p + j] = t;
+                    t = ai[c * p + j]; ai[c * p + j] = ai[r * p + j]; ai[r * p + j] = t;
+                }
+            }
+            if(best <= tiny) {
+                // 固有値なので特異になる. 小さな値に置き換えて続ける
+                ar[c * p + c] = tiny;
+                ai[c * p + c] = 0;
+            }
+            double dr = ar[c * p + c], di = ai[c * p + c];
+            double d2 = dr * dr + di * di;
+            for(int i = c + 1; i < p; i++) {
+                double xr = ar[i * p + c], xi = ai[i * p + c];
+                if(xr == 0 && xi == 0) continue;
+                double lr2 = (xr * dr + xi * di) / d2, li2 = (xi * dr - xr * di) / d2;
+                ar[i * p + c] = lr2;
+                ai[i * p + c] = li2;
+                for(int j = c + 1; j < p; j++) {
+                    ar[i * p + j] -= lr2 * ar[c * p + j] - li2 * ai[c * p + j];
+                    ai[i * p + j] -= lr2 * ai[c * p + j] + li2 * ar[c * p + j];
+                }
+            }
+        }
+        // 2 回の逆反復
+        double [] yr = new double[p], yi = new double[p];
+        Arrays.fill(yr, 1.0);
+        for(int it = 0; it < 2; it++) {
+            for(int c = 0; c < p; c++) {
+                int r = piv[c];
+                double t = yr[c]; yr[c] = yr[r]; yr[r] = t;
+                t = yi[c]; yi[c] = yi[r]; yi[r] = t;
+                for(int i = c + 1; i < p; i++) {
+                    double xr = ar[i * p + c], xi = ai[i * p + c];
+                    yr[i] -= xr * yr[c] - xi * yi[c];
+                    yi[i] -= xr * yi[c] + xi * yr[c];
+                }
+            }
+            for(int c = p - 1; c >= 0; c--) {
+                double sr = yr[c], si = yi[c];
+                for(int j = c + 1; j < p; j++) {
+                    sr -= ar[c * p + j] * yr[j] - ai[c * p + j] * yi[j];
+                    si -= ar[c * p + j] * yi[j] + ai[c * p + j] * yr[j];
+                }
+                double dr = ar[c * p + c], di = ai[c * p + c];
+                double d2 = dr * dr + di * di;
+                yr[c] = (sr * dr + si * di) / d2;
+                yi[c] = (si * dr - sr * di) / d2;
+            }
+            double s = 0;
+            for(int i = 0; i < p; i++) s += yr[i] * yr[i] + yi[i] * yi[i];
+            s = Math.sqrt(s);
+            for(int i = 0; i < p; i++) {
+                yr[i] /= s;
+                yi[i] /= s;
+            }
+        }
+        return Math.hypot(yr[p - 1], yi[p - 1]);
+    }
+
+    /**
+     * 求めた固有値を並べたブロック対角行列を返す（{@code EigenDecomposition#diag} と同じ形）. 
+     * @return {@code k}×{@code k} のブロック対角行列
+     */
+    Matrix diag() {
+        Matrix ret = new Matrix(k, k);
+        for(int i = 0; i < k; i++) {
+            ret.set(i, i, re[i]);
+            if(im[i] > 0 && i + 1 < k) {
+                ret.set(i, i + 1, im[i]);
+            } else if(im[i] < 0 && i > 0) {
+                ret.set(i, i - 1, im[i]);
+            }
+        }
+        return ret;
+    }
+}
+
+/**
+ * Krylov 部分空間法による線形方程式 {@code A x = b} の反復解法. 
+ * 係数行列には行列ベクトル積（{@link LinearOperator#apply}）でしか触らないので, 
+ * 疎行列のように要素を直接消去できない大きな行列でも解ける. <br />
+ * 対称正定値なら共役勾配法（{@link #cg}）, そうでなければ BiCGSTAB 法（{@link #bicgstab}）か
+ * リスタート付き GMRES 法（{@link #gmres}）を使う. 
+ * いずれも初期値は 0 で, 残差のノルムが {@code tol |b|} 以下になるか, 反復の回数が {@code maxit} に達したら止める. 
+ * ベクトルの演算は {@code Matrix.kernels} に任せる. <br />
+ * 前処理 {@code pc} を与えると, 共役勾配法では前処理付き共役勾配法に, BiCGSTAB 法と GMRES 法では右前処理 {@code A M^-1 (M x) = b} になる. 
+ * 右前処理なので, 収束判定に使う残差は前処理の有無によらず元の方程式の {@code b - A x} のまま. 
+ */
+class IterativeSolver {
+    final LinearOperator op;
+    /**
+     * 前処理. {@code null} なら前処理をしない. 
+     */
+    final Preconditioner pc;
+    final int n;
+    /**
+     * 収束判定の相対残差. 
+     */
+    final double tol;
+    /**
+     * 反復の回数の上限. 
+     */
+    final int maxit;
+    /**
+     * 最後の解法で使った反復の回数. 
+     */
+    int iterations;
+    /**
+     * 最後の解法で得た解の相対残差 {@code |b - A x| / |b|}. 
+     */
+    double residual;
+    /**
+     * 最後の解法が反復の回数の上限までに収束したときに {@code true}. 
+     */
+    boolean converged;
+
+    /**
+     * @param op 係数行列（正方）
+     * @param pc 前処理. 前処理をしないなら {@code null}
+     * @param tol 収束判定の相対残差
+     * @param maxit 反復の回数の上限
+     */
+    IterativeSolver(LinearOperator op, Preconditioner pc, double tol, int maxit) {
+        this.op = op;
+        this.pc = pc;
+        this.n = op.dim();
+        this.tol = tol;
+        this.maxit = maxit;
+    }
+
+    /**
+     * {@code z = M^-1 r} を計算する. 前処理がなければ写すだけ. 
+     */
+    void precondition(double [] r, double [] z) {
+        if(pc == null) System.arraycopy(r, 0, z, 0, n);
+        else pc.apply(r, z);
+    }
+
+    /**
+     * 共役勾配法で解く. 係数行列は対称正定値であること（前処理も対称正定値であること）. 
+     * 1回の反復で行列ベクトル積と前処理を 1回ずつ使う. 
+     * @param b 右辺
+     * @return 解
+     */
+    double [] cg(double [] b) {
+        MatrixKernels kern = Matrix.kernels;
+        double [] x = new double[n];
+        double [] r = b.clone();
+        double [] z = new double[n];
+        precondition(r, z);
+        double [] p = z.clone();
+        double [] q = new double[n];
+        double bn = Math.sqrt(kern.dot(n, b, 0, b, 0));
+        double rr = kern.dot(n, r, 0, r, 0);
+        double rz = kern.dot(n, r, 0, z, 0);
+        int it = 0;
+        while(it < maxit && Math.sqrt(rr) > tol * bn) {
+            op.apply(p, q);
+            double pq = kern.dot(n, p, 0, q, 0);
+            if(!(pq != 0)) break; // 破綻（0 や NaN）
+            double alpha = rz / pq;
+            kern.axpy(n, alpha, p, 0, x, 0);
+            kern.axpy(n, -alpha, q, 0, r, 0);
+            precondition(r, z);
+            double rz1 = kern.dot(n, r, 0, z, 0);
+            // p = z + beta p
+            kern.scale(n, rz1 / rz, p, 0, p, 0);
+            kern.axpy(n, 1, z, 0, p, 0);
+            rz = rz1;
+            rr = kern.dot(n, r, 0, r, 0);
+            it++;
+        }
+        return finish(b, x, it);
+    }
+
+    /**
+     * BiCGSTAB 法で解く. 係数行列は対称でなくてもよい. 
+     * 1回の反復で行列ベクトル積と前処理を 2回ずつ使う. 
+     * @param b 右辺
+     * @return 解
+     */
+    double [] bicgstab(double [] b) {
+        MatrixKernels kern = Matrix.kernels;
+        double [] x = new double[n];
+        double [] r = b.clone();
+        double [] rh = b.clone(); // 影の残差
+        double [] p = new double[n];
+        double [] v = new double[n];
+        double [] s = new double[n];
+        double [] t = new double[n];
+        double [] y = new double[n];  // 前処理した p や s
+        double bn = Math.sqrt(kern.dot(n, b, 0, b, 0));
+        double rho = 1, alpha = 1, omega = 1;
+        int it = 0;
+        while(it < maxit && Math.sqrt(kern.dot(n, r, 0, r, 0)) > tol * bn) {
+            double rho1 = kern.dot(n, rh, 0, r, 0);
+            if(!(rho1 != 0)) break;
+            // p = r + beta (p - omega v)
+            double beta = (rho1 / rho) * (alpha / omega);
+            kern.axpy(n, -omega, v, 0, p, 0);
+            kern.scale(n, beta, p, 0, p, 0);
+            kern.axpy(n, 1, r, 0, p, 0);
+            precondition(p, y);
+            op.apply(y, v);
+            double rv = kern.dot(n, rh, 0, v, 0);
+            if(!(rv != 0)) break;
+            alpha = rho1 / rv;
+            // s = r - alpha v
+            System.arraycopy(r, 0, s, 0, n);
+            kern.axpy(n, -alpha, v, 0, s, 0);
+            kern.axpy(n, alpha, y, 0, x, 0);
+            it++;
+            if(Math.sqrt(kern.dot(n, s, 0, s, 0)) <= tol * bn) {
+                System.arraycopy(s, 0, r, 0, n);
+                break;
+            }
+            precondition(s, y);
+            op.apply(y, t);
+            double tt = kern.dot(n, t, 0, t, 0);
+            if(!(tt != 0)) break;
+            omega = kern.dot(n, t, 0, s, 0) / tt;
+            kern.axpy(n, omega, y, 0, x, 0);
+            // r = s - omega t
+            System.arraycopy(s, 0, r, 0, n);
+            kern.axpy(n, -omega, t, 0, r, 0);
+            rho = rho1;
+            if(omega == 0) break;
+        }
+        return finish(b, x, it);
+    }
+
+    /**
+     * {@code m} 回ごとにリスタートする GMRES 法で解く. 係数行列は対称でなくてもよい. 
+     * Krylov 部分空間の正規直交基底を修正 Gram-Schmidt 法で作り, 
+     * 射影した最小二乗問題は Givens 回転で上三角にしながら残差のノルムを追う. 
+     * 1回の反復で行列ベクトル積と前処理を 1回ずつ使い, 基底のために {@code (m+1) n} の作業領域を使う. 
+     * @param b 右辺
+     * @param m リスタートまでの反復の回数
+     * @return 解
+     */
+    double [] gmres(double [] b, int m) {
+        MatrixKernels kern = Matrix.kernels;
+        m = Math.max(1, Math.min(m, n));
+        double [] x = new double[n];
+        double [][] v = new double[m + 1][];
+        double [] h = new double[(m + 1) * m];  // 行優先の (m+1)×m
+        double [] cs = new double[m], sn = new double[m], g = new double[m + 1], y = new double[m];
+        double [] w = new double[n];
+        double [] z = new double[n];
+        double bn = Math.sqrt(kern.dot(n, b, 0, b, 0));
+        int it = 0;
+        while(it < maxit) {
+            // r = b - A x
+            op.apply(x, w);
+            double [] r = b.clone();
+            kern.axpy(n, -1, w, 0, r, 0);
+            double beta = Math.sqrt(kern.dot(n, r, 0, r, 0));
+            if(beta <= tol * bn || !(beta == beta)) break;
+            kern.scale(n, 1 / beta, r, 0, r, 0);
+            v[0] = r;
+            Arrays.fill(g, 0.0);
+            g[0] = beta;
+            int j = 0;
+            while(j < m && it < maxit) {
+                precondition(v[j], z);
+                op.apply(z, w);
+                it++;
+                for(int i = 0; i <= j; i++) {
+                    double hij = kern.dot(n, w, 0, v[i], 0);
+                    h[i * m + j] = hij;
+                    kern.axpy(n, -hij, v[i], 0, w, 0);
+                }
+                double hn = Math.sqrt(kern.dot(n, w, 0, w, 0));
+                // これまでの回転を新しい列に施す
+                for(int i = 0; i < j; i++) {
+                    double a = h[i * m + j], c = h[(i + 1) * m + j];
+                    h[i * m + j] = cs[i] * a + sn[i] * c;
+                    h[(i + 1) * m + j] = -sn[i] * a + cs[i] * c;
+                }
+                double a = h[j * m + j];
+                double d = Math.hypot(a, hn);
+                cs[j] = d == 0 ? 1 : a / d;
+                sn[j] = d == 0 ? 0 : hn / d;
+                h[j * m + j] = d;
+                g[j + 1] = -sn[j] * g[j];
+                g[j] = cs[j] * g[j];
+                j++;
+                if(Math.abs(g[j]) <= tol * bn || hn == 0) break;
+                if(v[j] == null) v[j] = new double[n];
+                kern.scale(n, 1 / hn, w, 0, v[j], 0);
+            }
+            // 上三角の H y = g を解いて x += M^-1 V y
+            for(int i = j - 1; i >= 0; i--) {
+                double s = g[i];
+                for(int l = i + 1; l < j; l++) s -= h[i * m + l] * y[l];
+                y[i] = s / h[i * m + i];
+            }
+            Arrays.fill(w, 0.0);
+            for(int i = 0; i < j; i++) kern.axpy(n, y[i], v[i], 0, w, 0);
+            precondition(w, z);
+            kern.axpy(n, 1, z, 0, x, 0);
+            if(Math.abs(g[j]) <= tol * bn) break;
+        }
+        return finish(b, x, it);
+    }
+
+    /**
+     * 解の本当の残差を計算して, 反復の回数などを記録する. 
+     */
+    double [] finish(double [] b, double [] x, int it) {
+        MatrixKernels kern = Matrix.kernels;
+        double [] r = new double[n];
+        op.apply(x, r);
+        kern.axpy(n, -1, b, 0, r, 0);
+        double bn = Math.sqrt(kern.dot(n, b, 0, b, 0));
+        double rn = Math.sqrt(kern.dot(n, r, 0, r, 0));
+        iterations = it;
+        residual = bn == 0 ? rn : rn / bn;
+        // 漸化式で更新した残差ではなく, 本当の残差で判定する
+        converged = residual <= tol;
+        return x;
+    }
+}
+
+/**
+ * 反復解法の前処理. 係数行列 A を近似する, 簡単に解ける行列 M について {@code z = M^-1 r} を計算する. 
+ * 一度作っておけば, 同じ係数行列に対する何度もの求解で使い回せる. 
+ */
+interface Preconditioner {
+    /**
+     * 前処理する行列の次元を返す. 
+     * @return 次元
+     */
+    int dim();
+    /**
+     * {@code z = M^-1 r} を計算する. 
+     * @param r 長さ {@code dim()} の入力ベクトル（書き換えない）
+     * @param z 結果を書き込む長さ {@code dim()} のベクトル
+     */
+    void apply(double [] r, double [] z);
+
+    /**
+     * 種類を表す名前から前処理を作る. 
+     * {@code jacobi}, {@code bjacobi}（ブロックの大きさ 8）または {@code bjacobi(b)}, {@code ilu0}, {@code ic0} を受け付ける. 
+     * @param type 前処理の種類
+     * @param a 係数行列（正方）
+     * @return 前処理. 種類が分からないときや, 作れない（対角に 0 がある, 正定値でないなど）ときは {@code null}
+     */
+    static Preconditioner create(String type, Matrix a) {
+        if(a.m != a.n) return null;
+        if("jacobi".equals(type)) return JacobiPreconditioner.create(a);
+        if("ilu0".equals(type)) return IncompleteLU.create(SparseMatrix.fromDense(a));
+        if("ic0".equals(type)) return IncompleteCholesky.create(SparseMatrix.fromDense(a));
+        if(type.startsWith("bjacobi")) {
+            int bs = 8;
+            if(type.length() > 7) { // bjacobi(b)
+                if(type.charAt(7) != '(' || !type.endsWith(")")) return null;
+                try {
+                    bs = Integer.parseInt(type.substring(8, type.length() - 1));
+                } catch(NumberFormatException e) { // 数として読めなければ受け付けない
+                    return null;
+                }
+            }
+            return bs > 0 ? BlockJacobiPreconditioner.create(a, bs) : null;
+        }
+        return null;
+    }
+}
+
+/**
+ * 対角成分だけを使う前処理（Jacobi 法, 対角スケーリング）. {@code z_i = r_i / a_ii}. 
+ */
+class JacobiPreconditioner implements Preconditioner {
+    /**
+     * 対角成分の逆数. 
+     */
+    final double [] inv;
+    JacobiPreconditioner(double [] inv) {
+        this.inv = inv;
+    }
+    /**
+     * @param a 係数行列
+     * @return 前処理. 対角に 0 があれば {@code null}
+     */
+    static JacobiPreconditioner create(Matrix a) {
+        double [] inv = new double[a.n];
+        for(int i = 0; i < a.n; i++) {
+            double d = a.get(i, i);
+            if(d == 0) return null;
+            inv[i] = 1 / d;
+        }
+        return new JacobiPreconditioner(inv);
+    }
+    public int dim() {
+        return inv.length;
+    }
+    public void apply(double [] r, double [] z) {
+        for(int i = 0; i < inv.length; i++) z[i] = inv[i] * r[i];
+    }
+    public String toString() {
+        return "jacobi " + inv.length;
+    }
+}
+
+/**
+ * 対角に並ぶ {@code bs}×{@code bs} のブロックだけを使う前処理（ブロック Jacobi 法）. 
+ * 各ブロックの逆行列をあらかじめ求めておき, 適用するときは小さな行列ベクトル積を並べるだけにする. 
+ * 次元が {@code bs} で割り切れないときは最後のブロックが小さくなる. 
+ */
+class BlockJacobiPreconditioner implements Preconditioner {
+    final int n, bs;
+    /**
+     * 各ブロックの逆行列を行優先で並べたもの. 
+     * ブロック {@code b} の逆行列は {@code b * bs * bs} 番目から始まる. 
+     */
+    final double [] inv;
+    BlockJacobiPreconditioner(int n, int bs, double [] inv) {
+        this.n = n;
+        this.bs = bs;
+        this.inv = inv;
+    }
+    /**
+     * @param a 係数行列
+     * @param bs ブロックの大きさ
+     * @return 前処理. 正則でないブロックがあれば {@code null}
+     */
+    static BlockJacobiPreconditioner create(Matrix a, int bs) {
+        int n = a.n;
+        bs = Math.min(bs, n);
+        int nb = (n + bs - 1) / bs;
+        double [] inv = new double[nb * bs * bs];
+        for(int b = 0; b < nb; b++) {
+            int i0 = b * bs, len = Math.min(bs, n - i0);
+            Matrix blk = new Matrix(len, len);
+            for(int i = 0; i < len; i++) {
+                for(int j = 0; j < len; j++) blk.set(i, j, a.get(i0 + i, i0 + j));
+            }
+            Matrix bi = blk.inv();
+            if(bi == null) return null;
+            for(int i = 0; i < len; i++) {
+                for(int j = 0; j < len; j++) inv[b * bs * bs + i * len + j] = bi.get(i, j);
+            }
+        }
+        return new BlockJacobiPreconditioner(n, bs, inv);
+    }
+    public int dim() {
+        return n;
+    }
+    public void apply(double [] r, double [] z) {
+        MatrixKernels kern = Matrix.kernels;
+        for(int i0 = 0, b = 0; i0 < n; i0 += bs, b++) {
+            int len = Math.min(bs, n - i0);
+            for(int i = 0; i < len; i++) z[i0 + i] = kern.dot(len, inv, b * bs * bs + i * len, r, i0);
+        }
+    }
+    public String toString() {
+        return "bjacobi(" + bs + ") " + n;
+    }
+}
+
+/**
+ * 不完全 LU 分解 ILU(0) による前処理. 
+ * A と同じ非零パターンの中だけで LU 分解を行い（それ以外の位置に生じるフィルインは捨てる）, 
+ * 単位下三角の L と上三角の U を A と同じ CSR の配列に重ねて持つ. 
+ * 適用は前進代入と後退代入で {@code O(nnz)}. 
+ */
+class IncompleteLU implements Preconditioner {
+    final SparseMatrix lu;
+    /**
+     * 各行の対角要素の位置. 
+     */
+    final int [] diag;
+    IncompleteLU(SparseMatrix lu, int [] diag) {
+        this.lu = lu;
+        this.diag = diag;
+    }
+    /**
+     * IKJ 順の ILU(0) 分解. 各行 {@code i} について, 対角より左の要素 {@code a_ik} を順に {@code a_ik / u_kk} で消し, 
+     * {@code k} 行目の U の部分のうち {@code i} 行目に非零要素のある位置だけを更新する. 
+     * @param a 係数行列
+     * @return 前処理. 対角要素が欠けているか, 途中で対角が 0 になったら {@code null}
+     */
+    static IncompleteLU create(SparseMatrix a) {
+        int n = a.n;
+        int [] rp = a.rowPtr, ci = a.colIdx;
+        double [] v = a.data.clone();
+        int [] diag = new int[n];
+        int [] pos = new int[n];  // 今の行の列ごとの位置（なければ -1）
+        Arrays.fill(pos, -1);
+        for(int i = 0; i < n; i++) {
+            diag[i] = -1;
+            for(int p = rp[i]; p < rp[i + 1]; p++) {
+                pos[ci[p]] = p;
+                if(ci[p] == i) diag[i] = p;
+            }
+            if(diag[i] < 0) return null;
+            for(int p = rp[i]; p < diag[i]; p++) {
+                int k = ci[p];
+                double l = v[p] / v[diag[k]];
+                v[p] = l;
+                for(int q = diag[k] + 1; q < rp[k + 1]; q++) {
+                    int w = pos[ci[q]];
+                    if(w >= 0) v[w] -= l * v[q];
+                }
+            }
+            if(v[diag[i]] == 0) return null;
+            for(int p = rp[i]; p < rp[i + 1]; p++) pos[ci[p]] = -1;
+        }
+        return new IncompleteLU(new SparseMatrix(n, n, rp, ci, v), diag);
+    }
+    public int dim() {
+        return lu.n;
+    }
+    public void apply(double [] r, double [] z) {
+        int [] rp = lu.rowPtr, ci = lu.colIdx;
+        double [] v = lu.data;
+        int n = lu.n;
+        // L y = r（L は単位下三角）
+        for(int i = 0; i < n; i++) {
+            double s = r[i];
+            for(int p = rp[i]; p < diag[i]; p++) s -= v[p] * z[ci[p]];
+            z[i] = s;
+        }
+        // U z = y
+        for(int i = n - 1; i >= 0; i--) {
+            double s = z[i];
+            for(int p = diag[i] + 1; p < rp[i + 1]; p++) s -= v[p] * z[ci[p]];
+            z[i] = s / v[diag[i]];
+        }
+    }
+    public String toString() {
+        return "ilu0 " + lu.n + ", nnz = " + lu.nnz();
+    }
+}
+
+/**
+ * 不完全 Cholesky 分解 IC(0) による前処理. 対称正定値行列向けで, 共役勾配法と組み合わせて使う. 
+ * A の下三角部分と同じ非零パターンの中だけで Cholesky 分解 {@code A ≒ L L^T} を行い, L を CSR 形式で持つ. 
+ * 適用は L と {@code L^T} による前進代入と後退代入で {@code O(nnz)}. 
+ */
+class IncompleteCholesky implements Preconditioner {
+    /**
+     * 下三角行列 L. 各行の最後の要素が対角. 
+     */
+    final SparseMatrix l;
+    IncompleteCholesky(SparseMatrix l) {
+        this.l = l;
+    }
+    /**
+     * 行ごとの（左から見た）IC(0) 分解. 
+     * {@code l_ij = (a_ij - Σ_k l_ik l_jk) / l_jj} の和は, 列番号の昇順に並んだ i 行目と j 行目の併合で求める. 
+     * @param a 係数行列（下三角部分だけを使う）
+     * @return 前処理. 対角要素が欠けているか, 対角が正にならない（正定値でない）ときは {@code null}
+     */
+    static IncompleteCholesky create(SparseMatrix a) {
+        int n = a.n;
+        // 下三角部分（対角を含む）を取り出す
+        int [] rp = new int[n + 1];
+        for(int i = 0; i < n; i++) {
+            int c = 0;
+            for(int p = a.rowPtr[i]; p < a.rowPtr[i + 1] && a.colIdx[p] <= i; p++) c++;
+            rp[i + 1] = rp[i] + c;
+        }
+        int [] ci = new int[rp[n]];
+        double [] v = new double[rp[n]];
+        for(int i = 0; i < n; i++) {
+            System.arraycopy(a.colIdx, a.rowPtr[i], ci, rp[i], rp[i + 1] - rp[i]);
+            System.arraycopy(a.data, a.rowPtr[i], v, rp[i], rp[i + 1] - rp[i]);
+            if(rp[i + 1] == rp[i] || ci[rp[i + 1] - 1] != i) return null;
+        }
+        for(int i = 0; i < n; i++) {
+            for(int p = rp[i]; p < rp[i + 1]; p++) {
+                int j = ci[p];
+                // i 行目と j 行目の, j より左の共通な列について l_ik l_jk を引く
+                double s = v[p];
+                int q = rp[i], w = rp[j];
+                while(q < p && w < rp[j + 1] - 1) {
+                    if(ci[q] == ci[w]) s -= v[q++] * v[w++];
+                    else if(ci[q] < ci[w]) q++;
+                    else w++;
+                }
+                if(j < i) {
+                    v[p] = s / v[rp[j + 1] - 1];
+                } else {
+                    if(!(s > 0)) return null;
+                    v[p] = Math.sqrt(s);
+                }
+            }
+        }
+        return new IncompleteCholesky(new SparseMatrix(n, n, rp, ci, v));
+    }
+    public int dim() {
+        return l.n;
+    }
+    public void apply(double [] r, double [] z) {
+        int [] rp = l.rowPtr, ci = l.colIdx;
+        double [] v = l.data;
+        int n = l.n;
+        // L y = r
+        for(int i = 0; i < n; i++) {
+            double s = r[i];
+            int d = rp[i + 1] - 1;
+            for(int p = rp[i]; p < d; p++) s -= v[p] * z[ci[p]];
+            z[i] = s / v[d];
+        }
+        // L^T z = y. L の行を後ろから見て, 求まった z_i を左の要素に配る
+        for(int i = n - 1; i >= 0; i--) {
+            int d = rp[i + 1] - 1;
+            double zi = z[i] / v[d];
+            z[i] = zi;
+            for(int p = rp[i]; p < d; p++) z[ci[p]] -= v[p] * zi;
+        }
+    }
+    public String toString() {
+        return "ic0 " + l.n + ", nnz = " + l.nnz();
+    }
+}
+
+/**
+ * 正方行列の固有値を求める. 
+ * まず Householder 変換で上 Hessenberg 行列に相似変換し（{@code O(n^3)}）, 
+ * 次に Francis の陰的ダブルシフト QR 法で, 下副対角の小さい要素を見つけるたびに減次しながら固有値を取り出す. 
+ * 1 回の QR ステップは Hessenberg 行列に対する {@code O(n^2)} の計算で, 
+ * 固有値 1 つあたり数回のステップで収束するので全体でも {@code O(n^3)} になる. <br />
+ * 実行列なので複素固有値は共役の対で現れる. 実部を {@code re}, 虚部を {@code im} に持つ. <br />
+ * 対称行列の場合は, Householder 変換で三重対角行列にしてから陰的 QL 法で求める（EISPACK の tql2）. 
+ * こちらは固有値がすべて実数で, 固有ベクトルも同時に求められ, 一般の場合よりもずっと速い. 
+ */
+class EigenDecomposition {
+    /**
+     * 行列のサイズ. 
+     */
+    final int n;
+    /**
+     * 固有値の実部. 
+     */
+    final double [] re;
+    /**
+     * 固有値の虚部. 実固有値なら 0, 共役複素数の対なら {@code im[k] > 0}, {@code im[k+1] = -im[k]} の順に並ぶ. 
+     */
+    final double [] im;
+    /**
+     * QR 反復が決められた回数の中で収束したときに {@code true}. 
+     */
+    final boolean converged;
+    /**
+     * 対称行列として解いたときに {@code true}. このとき固有値は昇順に並ぶ. 
+     */
+    final boolean symmetric;
+    /**
+     * 固有ベクトルを列に並べた直交行列（{@code re[k]} に対応するのが k 列目）. 
+     * 対称行列で固有ベクトルを求めるよう指定したときだけ作られ, それ以外は {@code null}. 
+     */
+    final Matrix vectors;
+
+    /**
+     * 与えられた正方行列の固有値を求める. 元の行列は変更しない. 
+     * @param mat 正方行列
+     */
+    EigenDecomposition(Matrix mat) {
+        this(mat, false);
+    }
+
+    /**
+     * 与えられた正方行列の固有値を求める. 元の行列は変更しない. 
+     * 対称行列なら対称行列用の解法を自動的に選ぶ. 
+     * @param mat 正方行列
+     * @param wantVectors 対称行列のときに固有ベクトルも求めるなら {@code true}
+     */
+    EigenDecomposition(Matrix mat, boolean wantVectors) {
+        this.n = mat.m;
+        this.re = new double[n];
+        this.im = new double[n];
+        double [] h = new double[n * n];
+        for(int i = 0; i < n; i++) {
+            for(int j = 0; j < n; j++) {
+                h[i * n + j] = mat.get(i, j);
+            }
+        }
+        this.symmetric = isSymmetric(mat);
+        if(symmetric) {
+            double [] e = new double[n];
+            // 変換行列は転置 Q^T で持つ. 固有ベクトルを行として持てば, QL 法の回転は連続した 2 行に掛かる
+            double [] w = wantVectors ? new double[n * n] : null;
+            tridiagonalize(h, n, re, e, w);
+            this.converged = tql2(n, re, e, w);
+            // w の行が固有ベクトルなので, 列優先の行列として読めば固有ベクトルが列に並ぶ
+            this.vectors = (w == null) ? null : new Matrix(w, null, 0, n, n, 1, n, false);
+        } else {
+            hessenberg(h, n);
+            this.converged = hqr(h, n, re, im);
+            this.vectors = null;
+        }
+    }
+
+    /**
+     * 行列が（丸め誤差の範囲で）対称かどうかを調べる. 
+     * @param mat 正方行列
+     * @return すべての {@code i, j} で {@code a_ij} と {@code a_ji} の差が相対的に十分小さいとき {@code true}
+     */
+    static boolean isSymmetric(Matrix mat) {
+        if(mat.m != mat.n) return false;
+        for(int i = 0; i < mat.m; i++) {
+            for(int j = 0; j < i; j++) {
+                double a = mat.get(i, j), b = mat.get(j, i);
+                if(Math.abs(a - b) > 1e-12 * Math.max(Math.abs(a), Math.abs(b))) return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 対称行列の Householder 変換による三重対角化 {@code T = Q^T A Q}. 
+     * 各段で {@code A22 -= u q^T + q u^T} の対称なランク 2 更新を行い, 
+     * 行列の積と更新はどちらも連続した行に対する {@code dot}/{@code axpy} で行う. 
+     * @param a 行優先の対称行列. 計算の途中で書き換え, Householder ベクトルの置き場にも使う
+     * @param n 行列のサイズ
+     * @param d 三重対角行列の対角要素を入れる配列
+     * @param e 三重対角行列の副対角要素を入れる配列（{@code e[i]} が {@code (i, i-1)} 要素, {@code e[0] = 0}）
+     * @param w {@code Q^T} を入れる {@code n}×{@code n} の配列. 変換行列が要らないなら {@code null}
+     */
+    static void tridiagonalize(double [] a, int n, double [] d, double [] e, double [] w) {
+        MatrixKernels kern = Matrix.kernels;
+        double [] u = new double[n];
+        double [] q = new double[n];
+        double [] hs = new double[n];
+        for(int k = 0; k < n - 2; k++) {
+            int m = k + 1;
+            double scale = 0.0;
+            for(int i = m; i < n; i++) scale += Math.abs(a[i * n + k]);
+            if(scale == 0.0) {
+                e[m] = 0.0;
+                continue;
+            }
+            // Householder ベクトル u と h = |u|^2 / 2
+            double hh = 0.0;
+            for(int i = m; i < n; i++) {
+                u[i] = a[i * n + k] / scale;
+                hh += u[i] * u[i];
+            }
+            double g = Math.sqrt(hh);
+            if(u[m] > 0) g = -g;
+            hh -= u[m] * g;
+            u[m] -= g;
+            // p = A22 u / h, q = p - (u^T p / 2h) u
+            for(int i = m; i < n; i++) {
+                q[i] = kern.dot(n - m, a, i * n + m, u, m) / hh;
+            }
+            double kk = kern.dot(n - m, u, m, q, m) / (2 * hh);
+            kern.axpy(n - m, -kk, u, m, q, m);
+            // A22 -= u q^T + q u^T
+            for(int i = m; i < n; i++) {
+                kern.axpy(n - m, -u[i], q, m, a, i * n + m);
+                kern.axpy(n - m, -q[i], u, m, a, i * n + m);
+            }
+            e[m] = scale * g;
+            // k 行目はもう使わないので u を置いておく
+            System.arraycopy(u, m, a, k * n + m, n - m);
+            hs[k] = hh;
+        }
+        for(int i = 0; i < n; i++) d[i] = a[i * n + i];
+        e[0] = 0.0;
+        if(n > 1) e[n - 1] = a[(n - 1) * n + n - 2];
+        if(w == null) return;
+        // Q^T = H_{n-3} ... H_0 を, 単位行列に右から H_k を掛けていって作る（後ろの段から）
+        Arrays.fill(w, 0.0);
+        for(int i = 0; i < n; i++) w[i * n + i] = 1.0;
+        for(int k = n - 3; k >= 0; k--) {
+            if(hs[k] == 0.0) continue;
+            int m = k + 1;
+            for(int i = m; i < n; i++) {
+                double t = kern.dot(n - m, w, i * n + m, a, k * n + m) / hs[k];
+                kern.axpy(n - m, -t, a, k * n + m, w, i * n + m);
+            }
+        }
+    }
+
+    /**
+     * 対称三重対角行列の固有値（と固有ベクトル）を陰的 QL 法で求める（EISPACK の tql2）. 
+     * 最後に固有値を昇順に並べ替える. 
+     * @param n 行列のサイズ
+     * @param d 対角要素. 固有値で上書きする
+     * @param e 副対角要素（{@code tridiagonalize} の形式）. 計算の途中で壊れる
+     * @param w 固有ベクトルも求めるなら, 三重対角化の直交行列の転置（行優先）. 
+     *          固有ベクトルを行に並べたもので上書きする. 固有値だけでよいなら {@code null}
+     * @return 反復が収束したら {@code true}
+     */
+    static boolean tql2(int n, double [] d, double [] e, double [] w) {
+        for(int i = 1; i < n; i++) e[i - 1] = e[i];
+        if(n > 0) e[n - 1] = 0.0;
+        final double eps = Math.ulp(1.0);
+        double f = 0.0;
+        double tst1 = 0.0;
+        for(int l = 0; l < n; l++) {
+            // 副対角の小さい要素を探す
+            tst1 = Math.max(tst1, Math.abs(d[l]) + Math.abs(e[l]));
+            int m = l;
+            while(m < n) {
+                if(Math.abs(e[m]) <= eps * tst1) break;
+                m++;
+            }
+            if(m > l) {
+                int iter = 0;
+                do {
+                    if(iter++ >= 30) return false;
+                    // シフトを決める
+                    double g = d[l];
+                    double p = (d[l + 1] - g) / (2.0 * e[l]);
+                    double r = Math.hypot(p, 1.0);
+                    if(p < 0) r = -r;
+                    d[l] = e[l] / (p + r);
+                    d[l + 1] = e[l] * (p + r);
+                    double dl1 = d[l + 1];
+                    double h = g - d[l];
+                    for(int i = l + 2; i < n; i++) d[i] -= h;
+                    f += h;
+                    // 陰的 QL 変換
+                    p = d[m];
+                    double c = 1.0, c2 = c, c3 = c;
+                    double el1 = e[l + 1];
+                    double s = 0.0, s2 = 0.0;
+                    for(int i = m - 1; i >= l; i--) {
+                        c3 = c2;
+                        c2 = c;
+                        s2 = s;
+                        g = c * e[i];
+                        h = c * p;
+                        r = Math.hypot(p, e[i]);
+                        e[i + 1] = s * r;
+                        s = e[i] / r;
+                        c = p / r;
+                        p = c * d[i] - s * g;
+                        d[i + 1] = h + s * (c * g + s * d[i]);
+                        // 固有ベクトルの i 行目と i+1 行目に回転を掛ける
+                        if(w != null) {
+                            int a = i * n, b = (i + 1) * n;
+                            for(int k = 0; k < n; k++) {
+                                double t = w[b + k];
+                                w[b + k] = s * w[a + k] + c * t;
+                                w[a + k] = c * w[a + k] - s * t;
+                            }
+                        }
+                    }
+                    p = -s * s2 * c3 * el1 * e[l] / dl1;
+                    e[l] = s * p;
+                    d[l] = c * p;
+                } while(Math.abs(e[l]) > eps * tst1);
+            }
+            d[l] += f;
+            e[l] = 0.0;
+        }
+        // 固有値を昇順に並べ替える
+        for(int i = 0; i < n - 1; i++) {
+            int k = i;
+            double p = d[i];
+            for(int j = i + 1; j < n; j++) {
+                if(d[j] < p) {
+                    k = j;
+                    p = d[j];
+                }
+            }
+            if(k != i) {
+                d[k] = d[i];
+                d[i] = p;
+                if(w != null) {
+                    double [] t = new double[n];
+                    System.arraycopy(w, i * n, t, 0, n);
+                    System.arraycopy(w, k * n, w, i * n, n);
+                    System.arraycopy(t, 0, w, k * n, n);
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Householder 変換による上 Hessenberg 行列への相似変換（EISPACK の orthes）. 
+     * 左右からの変換はどちらも行単位の {@code dot}/{@code axpy} で行う. 
+     * @param h 行優先の {@code n}×{@code n} の配列. その場で上 Hessenberg 行列に書き換える
+     * @param n 行列のサイズ
+     */
+    static void hessenberg(double [] h, int n) {
+        MatrixKernels kern = Matrix.kernels;
+        double [] u = new double[n];
+        double [] f = new double[n];
+        for(int m = 1; m < n - 1; m++) {
+            double scale = 0.0;
+            for(int i = m; i < n; i++) scale += Math.abs(h[i * n + m - 1]);
+            if(scale == 0.0) continue;
+            // Householder ベクトル u と h = |u|^2 / 2
+            double hh = 0.0;
+            for(int i = n - 1; i >= m; i--) {
+                u[i] = h[i * n + m - 1] / scale;
+                hh += u[i] * u[i];
+            }
+            double g = Math.sqrt(hh);
+            if(u[m] > 0) g = -g;
+            hh -= u[m] * g;
+            u[m] -= g;
+            // 左から (I - u u^T / h) を掛ける: f = u^T H を行ごとに足し込んでから各行を更新
+            Arrays.fill(f, m, n, 0.0);
+            for(int i = m; i < n; i++) {
+                kern.axpy(n - m, u[i], h, i * n + m, f, m);
+            }
+            for(int i = m; i < n; i++) {
+                kern.axpy(n - m, -u[i] / hh, f, m, h, i * n + m);
+            }
+            // 右から (I - u u^T / h) を掛ける
+            for(int i = 0; i < n; i++) {
+                double s = kern.dot(n - m, h, i * n + m, u, m) / hh;
+                kern.axpy(n - m, -s, u, m, h, i * n + m);
+            }
+            h[m * n + m - 1] = scale * g;
+            for(int i = m + 1; i < n; i++) h[i * n + m - 1] = 0.0;
+        }
+    }
+
+    /**
+     * 上 Hessenberg 行列の固有値を陰的ダブルシフト QR 法で求める（EISPACK の hqr）. 
+     * 固有値だけが必要なので, 変換は減次した後の有効な部分（{@code l}..{@code en}）にだけ施す. 
+     * @param h 行優先の上 Hessenberg 行列. 計算の途中で書き換える
+     * @param n 行列のサイズ
+     * @param wr 固有値の実部を入れる配列
+     * @param wi 固有値の虚部を入れる配列
+     * @return 反復が収束したら {@code true}
+     */
+    static boolean hqr(double [] h, int n, double [] wr, double [] wi) {
+        final double eps = Math.ulp(1.0);
+        double norm = 0.0;
+        for(int i = 0; i < n; i++) {
+            for(int j = Math.max(i - 1, 0); j < n; j++) norm += Math.abs(h[i * n + j]);
+        }
+        int en = n - 1;
+        int iter = 0;
+        int total = 0;
+        double exshift = 0.0;
+        double p = 0, q = 0, r = 0, s, w, x, y, z;
+        while(en >= 0) {
+            // 下副対角の小さい要素を探す
+            int l = en;
+            while(l > 0) {
+                s = Math.abs(h[(l - 1) * n + l - 1]) + Math.abs(h[l * n + l]);
+                if(s == 0.0) s = norm;
+                if(Math.abs(h[l * n + l - 1]) < eps * s) break;
+                l--;
+            }
+            x = h[en * n + en];
+            if(l == en) {
+                // 1 つ求まった
+                wr[en] = x + exshift;
+                wi[en] = 0.0;
+                en--;
+                iter = 0;
+                continue;
+            }
+            y = h[(en - 1) * n + en - 1];
+            w = h[en * n + en - 1] * h[(en - 1) * n + en];
+            if(l == en - 1) {
+                // 2 つ求まった（実数の対または共役複素数の対）
+                p = (y - x) / 2.0;
+                q = p * p + w;
+                z = Math.sqrt(Math.abs(q));
+                x += exshift;
+                if(q >= 0) {
+                    z = (p >= 0) ? p + z : p - z;
+                    wr[en - 1] = x + z;
+                    wr[en] = (z != 0.0) ? x - w / z : x + z;
+                    wi[en - 1] = 0.0;
+                    wi[en] = 0.0;
+                } else {
+                    wr[en - 1] = x + p;
+                    wr[en] = x + p;
+                    wi[en - 1] = z;
+                    wi[en] = -z;
+                }
+                en -= 2;
+                iter = 0;
+                continue;
+            }
+            if(total++ >= 30 * n) return false;
+            // 例外シフト（収束が遅いとき）
+            if(iter == 10 || iter == 20) {
+                exshift += x;
+                for(int i = 0; i <= en; i++) h[i * n + i] -= x;
+                s = Math.abs(h[en * n + en - 1]) + Math.abs(h[(en - 1) * n + en - 2]);
+                x = y = 0.75 * s;
+                w = -0.4375 * s * s;
+            }
+            iter++;
+            // 連続する 2 つの小さい下副対角要素を探す
+            int m = en - 2;
+            while(true) {
+                z = h[m * n + m];
+                r = x - z;
+                s = y - z;
+                p = (r * s - w) / h[(m + 1) * n + m] + h[m * n + m + 1];
+                q = h[(m + 1) * n + m + 1] - z - r - s;
+                r = h[(m + 2) * n + m + 1];
+                s = Math.abs(p) + Math.abs(q) + Math.abs(r);
+                p /= s;
+                q /= s;
+                r /= s;
+                if(m == l) break;
+                if(Math.abs(h[m * n + m - 1]) * (Math.abs(q) + Math.abs(r))
+                   < eps * (Math.abs(p) * (Math.abs(h[(m - 1) * n + m - 1]) + Math.abs(z)
+                                           + Math.abs(h[(m + 1) * n + m + 1])))) break;
+                m--;
+            }
+            for(int i = m + 2; i <= en; i++) {
+                h[i * n + i - 2] = 0.0;
+                if(i > m + 2) h[i * n + i - 3] = 0.0;
+            }
+            // 行 l..en, 列 m..en に対するダブル QR ステップ（バルジの追い出し）
+            for(int k = m; k <= en - 1; k++) {
+                boolean notlast = (k != en - 1);
+                if(k != m) {
+                    p = h[k * n + k - 1];
+                    q = h[(k + 1) * n + k - 1];
+                    r = notlast ? h[(k + 2) * n + k - 1] : 0.0;
+                    x = Math.abs(p) + Math.abs(q) + Math.abs(r);
+                    if(x == 0.0) continue;
+                    p /= x;
+                    q /= x;
+                    r /= x;
+                }
+                s = Math.sqrt(p * p + q * q + r * r);
+                if(p < 0) s = -s;
+                if(s == 0.0) continue;
+                if(k != m) {
+                    h[k * n + k - 1] = -s * x;
+                } else if(l != m) {
+                    h[k * n + k - 1] = -h[k * n + k - 1];
+                }
+                p += s;
+                x = p / s;
+                y = q / s;
+                z = r / s;
+                q /= p;
+                r /= p;
+                // 行の変換
+                for(int j = k; j <= en; j++) {
+                    p = h[k * n + j] + q * h[(k + 1) * n + j];
+                    if(notlast) {
+                        p += r * h[(k + 2) * n + j];
+                        h[(k + 2) * n + j] -= p * z;
+                    }
+                    h[k * n + j] -= p * x;
+                    h[(k + 1) * n + j] -= p * y;
+                }
+                // 列の変換
+                int imax = Math.min(en, k + 3);
+                for(int i = l; i <= imax; i++) {
+                    p = x * h[i * n + k] + y * h[i * n + k + 1];
+                    if(notlast) {
+                        p += z * h[i * n + k + 2];
+                        h[i * n + k + 2] -= p * r;
+                    }
+                    h[i * n + k] -= p;
+                    h[i * n + k + 1] -= p * q;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 固有値を並べたブロック対角行列を返す. 
+     * 実固有値 {@code a} は対角要素に, 共役複素数の対 {@code a±bi} は 2×2 のブロック
+     * {@code [[a, b], [-b, a]]} として置く. 
+     * @return {@code n}×{@code n} のブロック対角行列
+     */
+    Matrix diag() {
+        Matrix ret = new Matrix(n, n);
+        for(int k = 0; k < n; k++) {
+            ret.set(k, k, re[k]);
+            if(im[k] > 0) {
+                ret.set(k, k + 1, im[k]);
+            } else if(im[k] < 0) {
+                ret.set(k, k - 1, im[k]);
+            }
+        }
+        return ret;
+    }
+}
+
+/**
+ * 行列演算の最も内側のループ（連続した {@code double} の並びに対する演算）をまとめたインターフェース. 
+ * 普通の Java のループで書いた {@code ScalarKernels} と, 
+ * Vector API（{@code jdk.incubator.vector}）で書いた {@code VectorKernels}（vector/MatrixVector.java）がある. 
+ * どちらを使うかは電卓の起動時に選ぶ（{@link #select(String)}）. 
+ */
+interface MatrixKernels {
+    /**
+     * {@code z[zo+p] = x[xo+p] + y[yo+p]} を {@code p = 0..len-1} について計算する. 
+     */
+    void add(int len, double [] x, int xo, double [] y, int yo, double [] z, int zo);
+    /**
+     * {@code y[yo+p] = a * x[xo+p]} を {@code p = 0..len-1} について計算する. 
+     */
+    void scale(int len, double a, double [] x, int xo, double [] y, int yo);
+    /**
+     * {@code y[yo+p] += a * x[xo+p]} を {@code p = 0..len-1} について計算する. 
+     * 掃き出し法の行の消去はこれで行う. 
+     */
+    void axpy(int len, double a, double [] x, int xo, double [] y, int yo);
+    /**
+     * 内積 {@code x[xo+p] * y[yo+p]} の {@code p = 0..len-1} についての和を返す. 
+     */
+    double dot(int len, double [] x, int xo, double [] y, int yo);
+    /**
+     * {@code Gemm} のマイクロカーネル. 
+     * 詰め直した A のパネル（{@code ap[ao..]}）と B のパネル（{@code bp[bo..]}）から
+     * {@code Gemm.MR}×{@code Gemm.NR} のブロックを計算し, 行優先で {@code t} に書き出す（足し込みではなく上書き）. 
+     */
+    void micro(int kb, double [] ap, int ao, double [] bp, int bo, double [] t);
+
+    /**
+     * 名前からカーネルの実装を選ぶ. 
+     * {@code "vector"} が指定されても, 実行時に {@code jdk.incubator.vector} モジュールか
+     * {@code VectorKernels} クラスが見つからなければ, 警告を出して {@code ScalarKernels} を使う. 
+     * @param name {@code "scalar"} か {@code "vector"}
+     * @return 選ばれたカーネル
+     */
+    static MatrixKernels select(String name) {
+        if("vector".equals(name)) {
+            if(!ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent()) {
+                System.err.println("Warn: jdk.incubator.vector is not available; using scalar kernels");
+                return new ScalarKernels();
+            }
+            try {
+                // コンパイル時に VectorKernels がなくても済むようにリフレクションで読み込む
+                return (MatrixKernels)Class.forName("VectorKernels").getDeclaredConstructor().newInstance();
+            } catch(ReflectiveOperationException | LinkageError e) {
+                System.err.println("Warn: cannot load vector kernels (" + e + "); using scalar kernels");
+                return new ScalarKernels();
+            }
+        }
+        if(!"scalar".equals(name)) {
+            System.err.println("Warn: unknown kernel: " + name + "; using scalar kernels");
+        }
+        return new ScalarKernels();
+    }
+}
+
+/**
+ * 普通の Java のループで書いたカーネル. 
+ */
+class ScalarKernels implements MatrixKernels {
+    public void add(int len, double [] x, int xo, double [] y, int yo, double [] z, int zo) {
+        for(int p = 0; p < len; p++) {
+            z[zo + p] = x[xo + p] + y[yo + p];
+        }
+    }
+    public void scale(int len, double a, double [] x, int xo, double [] y, int yo) {
+        for(int p = 0; p < len; p++) {
+            y[yo + p] = a * x[xo + p];
+        }
+    }
+    public void axpy(int len, double a, double [] x, int xo, double [] y, int yo) {
+        for(int p = 0; p < len; p++) {
+            y[yo + p] += a * x[xo + p];
+        }
+    }
+    public double dot(int len, double [] x, int xo, double [] y, int yo) {
+        double s = 0;
+        for(int p = 0; p < len; p++) {
+            s += x[xo + p] * y[yo + p];
+        }
+        return s;
+    }
+    /**
+     * 16個の部分和をすべて局所変数に置き, 最後に一度だけ {@code t} に書き出す. 
+     */
+    public void micro(int kb, double [] ap, int ao, double [] bp, int bo, double [] t) {
+        double c00 = 0, c01 = 0, c02 = 0, c03 = 0;
+        double c10 = 0, c11 = 0, c12 = 0, c13 = 0;
+        double c20 = 0, c21 = 0, c22 = 0, c23 = 0;
+        double c30 = 0, c31 = 0, c32 = 0, c33 = 0;
+        for(int p = 0; p < kb; p++) {
+            double a0 = ap[ao], a1 = ap[ao + 1], a2 = ap[ao + 2], a3 = ap[ao + 3];
+            double b0 = bp[bo], b1 = bp[bo + 1], b2 = bp[bo + 2], b3 = bp[bo + 3];
+            c00 += a0 * b0; c01 += a0 * b1; c02 += a0 * b2; c03 += a0 * b3;
+            c10 += a1 * b0; c11 += a1 * b1; c12 += a1 * b2; c13 += a1 * b3;
+            c20 += a2 * b0; c21 += a2 * b1; c22 += a2 * b2; c23 += a2 * b3;
+            c30 += a3 * b0; c31 += a3 * b1; c32 += a3 * b2; c33 += a3 * b3;
+            ao += Gemm.MR;
+            bo += Gemm.NR;
+        }
+        t[0] = c00;  t[1] = c01;  t[2] = c02;  t[3] = c03;
+        t[4] = c10;  t[5] = c11;  t[6] = c12;  t[7] = c13;
+        t[8] = c20;  t[9] = c21;  t[10] = c22; t[11] = c23;
+        t[12] = c30; t[13] = c31; t[14] = c32; t[15] = c33;
+    }
+}
+
+/**
+ * 行列演算を複数のコアで並列に実行するためのスレッドプール. 
+ * 演算量がしきい値 {@code threshold} を超えるときだけ並列に実行し, それ以下では逐次に計算する. 
+ * スレッド数やしきい値は {@code threads} コマンドで変更できる. 
+ */
+class MatrixPool {
+    /**
+     * 並列実行に使う {@code ForkJoinPool}. 既定では使えるコアの数だけスレッドを持つ. 
+     */
+    static ForkJoinPool pool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+    /**
+     * 並列に分割する演算量（積和の回数）のしきい値. これ以下の仕事はひとつのスレッドで片付ける. 
+     */
+    static long threshold = 1L << 21;
+
+    /**
+     * スレッドプールのスレッド数を変更する. 
+     * それまでのプールは新しい仕事を受け付けないように閉じる. 
+     * @param threads 新しいスレッド数
+     */
+    static void setThreads(int threads) {
+        if(threads <= 0) throw new IllegalArgumentException("threads must be positive");
+        ForkJoinPool old = pool;
+        pool = new ForkJoinPool(threads);
+        old.shutdown();
+    }
+
+    /**
+     * 与えられた演算量の仕事を並列に実行すべきときに {@code true} を返す. 
+     * @param work 仕事の演算量（積和の回数など）
+     * @return しきい値を超えていて, かつ 2 スレッド以上使えるときに {@code true}
+     */
+    static boolean worthSplitting(long work) {
+        return work > threshold && pool.getParallelism() > 1;
+    }
+
+    /**
+     * 仕事をプールで実行して終わるまで待つ. 
+     * @param task 実行する仕事
+     */
+    static void invoke(ForkJoinTask<?> task) {
+        pool.invoke(task);
+    }
+}
+
+/**
+ * 行列乗算 {@code C += alpha * A * B} を計算するカーネル. 
+ * A と B をキャッシュに収まる大きさのブロックに切り, 
+ * それぞれを連続した作業用配列に詰め直して（パッキング）から, 
+ * {@code MR}×{@code NR} の小さなブロックを局所変数（レジスタ）上で計算するマイクロカーネル
+ * （{@code MatrixKernels#micro}）で掛け合わせる. <br />
+ * ブロックの大きさ {@code mc}, {@code kc}, {@code nc} は実行中に {@code blocksize} コマンドで変更できる. <br />
+ * 演算量が大きいときは結果をタイルに分け, {@code MatrixPool} で並列に計算する（{@code GemmTask}）. 
+ */
+class Gemm {
+    /**
+     * マイクロカーネルが一度に計算する行数. 
+     */
+    static final int MR = 4;
+    /**
+     * マイクロカーネルが一度に計算する列数. 
+     */
+    static final int NR = 4;
+    /**
+     * A を詰め直すブロックの行数（L2 キャッシュに A のブロックが収まるように選ぶ）. 
+     */
+    static int mc = 128;
+    /**
+     * ブロックの奥行き（A の列数, B の行数. L1 キャッシュに B の細いパネルが収まるように選ぶ）. 
+     */
+    static int kc = 256;
+    /**
+     * B を詰め直すブロックの列数（L3 キャッシュに B のブロックが収まるように選ぶ）. 
+     */
+    static int nc = 2048;
+    /**
+     * これより演算量（m*n*k）が小さいときは, 詰め直しの手間の方が大きいので素朴なループで計算する. 
+     */
+    static long small = 32 * 32 * 32;
+    /**
+     * スレッドごとの作業用配列. 0 番目が A を, 1 番目が B を詰め直すのに, 
+     * 2 番目がマイクロカーネルの結果を受け取るのに使われる. 
+     * 呼び出しのたびに確保しなくて済むように使い回す. 
+     */
+    static final ThreadLocal<double [][]> work = new ThreadLocal<double [][]>() {
+        protected double [][] initialValue() {
+            return new double[][] { new double[0], new double[0], new double[MR * NR] };
+        }
+    };
+
+    /**
+     * ブロックの大きさを変更する. 
+     * {@code mc} は {@code MR} の, {@code nc} は {@code NR} の倍数に切り上げる. 
+     * @param mc A を詰め直すブロックの行数
+     * @param kc ブロックの奥行き
+     * @param nc B を詰め直すブロックの列数
+     */
+    static void setBlockSize(int mc, int kc, int nc) {
+        if(mc <= 0 || kc <= 0 || nc <= 0) throw new IllegalArgumentException("block size must be positive");
+        Gemm.mc = (mc + MR - 1) / MR * MR;
+        Gemm.kc = kc;
+        Gemm.nc = (nc + NR - 1) / NR * NR;
+    }
+
+    /**
+     * {@code c += alpha * a * b} を計算する. 
+     * 次元は矛盾しない（{@code a.n == b.m}, {@code c} が {@code a.m}×{@code b.n}）とする. 
+     * @param alpha 積に掛ける係数
+     * @param a 左から掛ける行列
+     * @param b 右から掛ける行列
+     * @param c 結果を足し込む行列
+     */
+    static void gemm(double alpha, Matrix a, Matrix b, Matrix c) {
+        gemm(alpha, a, b, 1.0, c);
+    }
+
+    /**
+     * {@code c = alpha * a * b + beta * c} を計算する. 
+     * {@code beta} 倍は最初の奥行きブロックの結果を書き出すときに一緒に行うので, 
+     * C を別途舐め直すことはない. {@code beta} が 0 のときは C の元の値は読まない. 
+     * 次元は矛盾しない（{@code a.n == b.m}, {@code c} が {@code a.m}×{@code b.n}）とする. 
+     * @param alpha 積に掛ける係数
+     * @param a 左から掛ける行列
+     * @param b 右から掛ける行列
+     * @param beta C の元の値に掛ける係数
+     * @param c 結果を書き込む行列
+     */
+    static void gemm(double alpha, Matrix a, Matrix b, double beta, Matrix c) {
+        int m = a.m, n = b.n, k = a.n;
+        if(m == 0 || n == 0) return;
+        if(k == 0 || alpha == 0) {
+            // 積の部分がないので beta 倍だけ
+            if(beta != 1) scale(beta, c);
+            return;
+        }
+        // 片方がベクトルなら行列ベクトル積の専用カーネルで
+        if(Gemv.tryGemv(alpha, a, b, beta, c)) return;
+        if((long)m * n * k <= small) {
+            naive(alpha, a, b, beta, c);
+            return;
+        }
+        if(MatrixPool.worthSplitting((long)m * n * k)) {
+            MatrixPool.invoke(new GemmTask(alpha, a, b, beta, c, 0, m, 0, n));
+            return;
+        }
+        gemm(alpha, a, b, beta, c, 0, m, 0, n);
+    }
+
+    /**
+     * {@code c} の行 {@code i0}..{@code i1-1}, 列 {@code j0}..{@code j1-1} の部分についてのみ
+     * {@code c = alpha * a * b + beta * c} をブロック化して計算する. 
+     * @param alpha 積に掛ける係数
+     * @param a 左から掛ける行列
+     * @param b 右から掛ける行列
+     * @param beta C の元の値に掛ける係数
+     * @param c 結果を書き込む行列
+     * @param i0 計算する行の始まり
+     * @param i1 計算する行の終わり（これは含まない）
+     * @param j0 計算する列の始まり
+     * @param j1 計算する列の終わり（これは含まない）
+     */
+    static void gemm(double alpha, Matrix a, Matrix b, double beta, Matrix c, int i0, int i1, int j0, int j1) {
+        int k = a.n;
+        int mc = Gemm.mc, kc = Gemm.kc, nc = Gemm.nc; // 途中で変更されても困らないように控えておく
+        double [][] w = work.get();
+        if(w[0].length < mc * kc) w[0] = new double[mc * kc];
+        if(w[1].length < kc * nc) w[1] = new double[kc * nc];
+        double [] ap = w[0], bp = w[1], t = w[2];
+        MatrixKernels kern = Matrix.kernels;
+        for(int jc = j0; jc < j1; jc += nc) {
+            int nb = Math.min(nc, j1 - jc);
+            for(int pc = 0; pc < k; pc += kc) {
+                int kb = Math.min(kc, k - pc);
+                double bt = pc == 0 ? beta : 1.0; // beta 倍は最初の奥行きブロックでだけ
+                packB(b, pc, jc, kb, nb, bp);
+                for(int ic = i0; ic < i1; ic += mc) {
+                    int mb = Math.min(mc, i1 - ic);
+                    packA(alpha, a, ic, pc, mb, kb, ap);
+                    // 詰め直したブロック同士を MR x NR ずつ掛ける
+                    for(int jr = 0; jr < nb; jr += NR) {
+                        for(int ir = 0; ir < mb; ir += MR) {
+                            kern.micro(kb, ap, ir * kb, bp, jr * kb, t);
+                            store(t, bt, c, ic + ir, jc + jr, Math.min(MR, mb - ir), Math.min(NR, nb - jr));
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * A の (i0, p0) から始まる {@code mb}×{@code kb} のブロックを {@code alpha} 倍しつつ
+     * {@code MR} 行ずつの細いパネルに詰め直す. 
+     * パネル内は列ごとに {@code MR} 個の要素が連続して並ぶ. 端数の行は 0 で埋める. 
+     */
+    static void packA(double alpha, Matrix a, int i0, int p0, int mb, int kb, double [] ap) {
+        int q = 0;
+        for(int ir = 0; ir < mb; ir += MR) {
+            int mr = Math.min(MR, mb - ir);
+            for(int p = 0; p < kb; p++) {
+                for(int r = 0; r < MR; r++) {
+                    ap[q++] = r < mr ? alpha * a.get(i0 + ir + r, p0 + p) : 0;
+                }
+            }
+        }
+    }
+
+    /**
+     * B の (p0, j0) から始まる {@code kb}×{@code nb} のブロックを
+     * {@code NR} 列ずつの細いパネルに詰め直す. 
+     * パネル内は行ごとに {@code NR} 個の要素が連続して並ぶ. 端数の列は 0 で埋める. 
+     */
+    static void packB(Matrix b, int p0, int j0, int kb, int nb, double [] bp) {
+        int q = 0;
+        for(int jr = 0; jr < nb; jr += NR) {
+            int nr = Math.min(NR, nb - jr);
+            for(int p = 0; p < kb; p++) {
+                for(int s = 0; s < NR; s++) {
+                    bp[q++] = s < nr ? b.get(p0 + p, j0 + jr + s) : 0;
+                }
+            }
+        }
+    }
+
+    /**
+     * マイクロカーネルが計算した {@code MR}×{@code NR} のブロック {@code t} のうち左上 {@code mr}×{@code nr} を
+     * C の (i0, j0) から始まる部分に書き出す. C の元の値は {@code beta} 倍して足す. 
+     */
+    static void store(double [] t, double beta, Matrix c, int i0, int j0, int mr, int nr) {
+        double [] cv = c.vals;
+        for(int r = 0; r < mr; r++) {
+            for(int s = 0; s < nr; s++) {
+                double v = t[r * NR + s];
+                if(cv == null) {
+                    // ヒープ外の行列
+                    c.set(i0 + r, j0 + s, beta == 0 ? v : beta * c.get(i0 + r, j0 + s) + v);
+                    continue;
+                }
+                int q = c.idx(i0 + r, j0 + s);
+                if(beta == 1) {
+                    cv[q] += v;
+                } else if(beta == 0) {
+                    cv[q] = v;
+                } else {
+                    cv[q] = beta * cv[q] + v;
+                }
+            }
+        }
+    }
+
+    /**
+     * C を {@code beta} 倍する. {@code beta} が 0 のときは元の値を読まずに 0 にする. 
+     */
+    static void scale(double beta, Matrix c) {
+        for(int i = 0; i < c.m; i++) {
+            for(int j = 0; j < c.n; j++) {
+                c.set(i, j, beta == 0 ? 0 : beta * c.get(i, j));
+            }
+        }
+    }
+
+    /**
+     * 小さな行列用の素朴な {@code c = alpha * a * b + beta * c}. 
+     * i-k-j の順に回して B と C を行方向に舐める. 
+     */
+    static void naive(double alpha, Matrix a, Matrix b, double beta, Matrix c) {
+        for(int i = 0; i < a.m; i++) {
+            if(beta != 1) {
+                for(int j = 0; j < b.n; j++) {
+                    c.set(i, j, beta == 0 ? 0 : beta * c.get(i, j));
+                }
+            }
+            for(int k = 0; k < a.n; k++) {
+                // 0 でも飛ばさない（b に NaN や無限大があれば結果に伝わるように）
+                double aik = alpha * a.get(i, k);
+                for(int j = 0; j < b.n; j++) {
+                    c.set(i, j, c.get(i, j) + aik * b.get(k, j));
+                }
+            }
+        }
+    }
+}
+
+/**
+ * {@code Gemm} の計算を, 結果の行列をタイルに切って並列に実行するための仕事. 
+ * 担当するタイルの演算量が {@code MatrixPool.threshold} 以下になるまで, 
+ * 長い方の辺を（{@code MR} や {@code NR} の倍数の位置で）半分に割って二つの仕事に分ける. 
+ */
+class GemmTask extends RecursiveAction {
+    private static final long serialVersionUID = 1L;
+    final double alpha, beta;
+    final Matrix a, b, c;
+    final int i0, i1, j0, j1;
+    GemmTask(double alpha, Matrix a, Matrix b, double beta, Matrix c, int i0, int i1, int j0, int j1) {
+        this.alpha = alpha;
+        this.beta = beta;
+        this.a = a;
+        this.b = b;
+        this.c = c;
+        this.i0 = i0;
+        this.i1 = i1;
+        this.j0 = j0;
+        this.j1 = j1;
+    }
+    protected void compute() {
+        int rows = i1 - i0, cols = j1 - j0;
+        if((long)rows * cols * a.n <= MatrixPool.threshold || (rows <= Gemm.MR && cols <= Gemm.NR)) {
+            Gemm.gemm(alpha, a, b, beta, c, i0, i1, j0, j1);
+        } else if(rows >= cols) {
+            int mid = i0 + (rows / 2 + Gemm.MR - 1) / Gemm.MR * Gemm.MR;
+            invokeAll(new GemmTask(alpha, a, b, beta, c, i0, mid, j0, j1),
+                      new GemmTask(alpha, a, b, beta, c, mid, i1, j0, j1));
+        } else {
+            int mid = j0 + (cols / 2 + Gemm.NR - 1) / Gemm.NR * Gemm.NR;
+            invokeAll(new GemmTask(alpha, a, b, beta, c, i0, i1, j0, mid),
+                      new GemmTask(alpha, a, b, beta, c, i0, i1, mid, j1));
+        }
+    }
+}
+
+/**
+ * 並列計算に使うスレッド数を設定する「コマンド」. 
+ * <p><blockquote><pre>{@code
+ * threads n
+ * }</pre></blockquote><p>
+ * のような 1行「ブロック」を受け付け, {@code MatrixPool} のスレッド数を {@code n} にする. 
+ * {@code threads n t} のように 2つ目の整数を与えると, 並列化する演算量のしきい値も {@code t} に変更する. 
+ * {@code threads} のみの場合は現在の設定を表示する. 現在の「結果」は変更しない. 
+ * スレッド数が正でない場合や, しきい値が負の場合は受け付けない. 
+ */
+class ThreadCount implements Command<Matrix> {
+    public Matrix tryExec(final String [] ts, final List<String> block, final Matrix res) {
+        if(block.size() != 1 || !"threads".equals(ts[0])) return null;
+        if(ts.length > 3) return null;
+        int threads = MatrixPool.pool.getParallelism();
+        long threshold = MatrixPool.threshold;
+        try {
+            if(ts.length >= 2) threads = Integer.parseInt(ts[1]);
+            if(ts.length == 3) threshold = Long.parseLong(ts[2]);
+        } catch(NumberFormatException e) { // 数として読めなければ受け付けない
+            return null;
+        }
+        if(threads <= 0 || threshold < 0) return null;
+        if(threads != MatrixPool.pool.getParallelism()) MatrixPool.setThreads(threads);
+        MatrixPool.threshold = threshold;
+        System.out.println("threads: " + MatrixPool.pool.getParallelism() + " threshold=" + MatrixPool.threshold);
+        return res;
+    }
+}
+
+/**
+ * 行列とベクトルの積 {@code y = alpha * M * x + beta * y} を計算するカーネル（BLAS の GEMV）. 
+ * 行列ベクトル積はメモリの読み出しで律速されるので, {@code Gemm} のような詰め直しはせず, 
+ * 行列の要素を並んでいる順にそのまま一度だけ読む. 
+ * 行列が行方向に連続していれば各行とベクトルの内積を, 
+ * 列方向に連続していれば列ベクトルの定数倍を順に足し込む（axpy）形で計算する. 
+ * 演算量が {@code MatrixPool.threshold} を超えると, 結果のベクトルを区間に分けて並列に計算する. 
+ * ヒープ外の行列は扱わない（{@code Gemm} の一般の経路で計算される）. 
+ */
+class Gemv {
+    /**
+     * 列ごとの axpy で計算するときに, 一度に扱う結果ベクトルの長さ. 
+     * この長さの部分ベクトルが L1 キャッシュに載ったまま各列を足し込む. 
+     */
+    static final int CHUNK = 2048;
+
+    /**
+     * {@code c = alpha * a * b + beta * c} のうち {@code a} か {@code b} がベクトルの場合を計算する. 
+     * {@code b} が列ベクトルなら {@code a} と {@code b} の積を, 
+     * {@code a} が行ベクトルなら {@code b} の転置と {@code a} の積を計算する. 
+     * @return 行列ベクトル積として計算したときに {@code true}. どちらもベクトルでなければ何もせずに {@code false}. 
+     */
+    static boolean tryGemv(double alpha, Matrix a, Matrix b, double beta, Matrix c) {
+        // 配列を直接舐めるので, ヒープ外の行列は Gemm の（要素を詰め直す）経路に任せる
+        if(!a.onHeap() || !b.onHeap() || !c.onHeap()) return false;
+        if(b.n == 1) {
+            // c (m x 1) = a (m x k) * b (k x 1)
+            gemv(alpha, a.vals, a.idx(0, 0), a.rs, a.cs, a.m, a.n,
+                 b.vals, b.idx(0, 0), b.rs, beta, c.vals, c.idx(0, 0), c.rs);
+            return true;
+        }
+        if(a.m == 1) {
+            // c^T (n x 1) = b^T (n x k) * a^T (k x 1)
+            gemv(alpha, b.vals, b.idx(0, 0), b.cs, b.rs, b.n, b.m,
+                 a.vals, a.idx(0, 0), a.cs, beta, c.vals, c.idx(0, 0), c.cs);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * {@code p}×{@code q} の行列 M（(i, j) 要素が {@code mv[mo + i*rs + j*cs]}）と
+     * 長さ {@code q} のベクトル x（{@code xv[xo + j*xs]}）について, 
+     * 長さ {@code p} のベクトル y（{@code yv[yo + i*ys]}）を {@code alpha * M * x + beta * y} にする. 
+     */
+    static void gemv(double alpha, double [] mv, int mo, int rs, int cs, int p, int q,
+                     double [] xv, int xo, int xs, double beta, double [] yv, int yo, int ys) {
+        if(MatrixPool.worthSplitting((long)p * q)) {
+            MatrixPool.invoke(new GemvTask(alpha, mv, mo, rs, cs, p, q, xv, xo, xs, beta, yv, yo, ys, 0, p));
+        } else {
+            gemv(alpha, mv, mo, rs, cs, p, q, xv, xo, xs, beta, yv, yo, ys, 0, p);
+        }
+    }
+
+    /**
+     * y の {@code i0}..{@code i1-1} 番目の要素についてだけ GEMV を計算する. 
+     */
+    static void gemv(double alpha, double [] mv, int mo, int rs, int cs, int p, int q,
+                     double [] xv, int xo, int xs, double beta, double [] yv, int yo, int ys, int i0, int i1) {
+        MatrixKernels kern = Matrix.kernels;
+        if(cs == 1 && xs == 1) {
+            // 行が連続している: 各行と x の内積
+            for(int i = i0; i < i1; i++) {
+                double d = alpha * kern.dot(q, mv, mo + i * rs, xv, xo);
+                int yi = yo + i * ys;
+                yv[yi] = beta == 0 ? d : d + beta * yv[yi];
+            }
+            return;
+        }
+        // 列方向に読む: y の部分ベクトルごとに, 各列の x_j 倍を足し込む
+        for(int c0 = i0; c0 < i1; c0 += CHUNK) {
+            int c1 = Math.min(i1, c0 + CHUNK);
+            for(int i = c0; i < c1; i++) {
+                int yi = yo + i * ys;
+                yv[yi] = beta == 0 ? 0 : beta * yv[yi];
+            }
+            for(int j = 0; j < q; j++) {
+                // 0 でも飛ばさない（列に NaN や無限大があれば結果に伝わるように）
+                double xj = alpha * xv[xo + j * xs];
+                int mj = mo + j * cs;
+                if(rs == 1 && ys == 1) {
+                    kern.axpy(c1 - c0, xj, mv, mj + c0, yv, yo + c0);
+                } else {
+                    for(int i = c0; i < c1; i++) {
+                        yv[yo + i * ys] += xj * mv[mj + i * rs];
+                    }
+                }
+            }
+        }
+    }
+}
+
+/**
+ * {@code Gemv} の計算を, 結果のベクトルを区間に分けて並列に実行するための仕事. 
+ * 担当する区間の演算量が {@code MatrixPool.threshold} 以下になるまで半分に割る. 
+ */
+class GemvTask extends RecursiveAction {
+    private static final long serialVersionUID = 1L;
+    final double alpha, beta;
+    final double [] mv, xv, yv;
+    final int mo, rs, cs, p, q, xo, xs, yo, ys, i0, i1;
+    GemvTask(double alpha, double [] mv, int mo, int rs, int cs, int p, int q,
+             double [] xv, int xo, int xs, double beta, double [] yv, int yo, int ys, int i0, int i1) {
+        this.alpha = alpha;
+        this.mv = mv;
+        this.mo = mo;
+        this.rs = rs;
+        this.cs = cs;
+        this.p = p;
+        this.q = q;
+        this.xv = xv;
+        this.xo = xo;
+        this.xs = xs;
+        this.beta = beta;
+        this.yv = yv;
+        this.yo = yo;
+        this.ys = ys;
+        this.i0 = i0;
+        this.i1 = i1;
+    }
+    protected void compute() {
+        if((long)(i1 - i0) * q <= MatrixPool.threshold || i1 - i0 <= 1) {
+            Gemv.gemv(alpha, mv, mo, rs, cs, p, q, xv, xo, xs, beta, yv, yo, ys, i0, i1);
+        } else {
+            int mid = (i0 + i1) >>> 1;
+            invokeAll(new GemvTask(alpha, mv, mo, rs, cs, p, q, xv, xo, xs, beta, yv, yo, ys, i0, mid),
+                      new GemvTask(alpha, mv, mo, rs, cs, p, q, xv, xo, xs, beta, yv, yo, ys, mid, i1));
+        }
     }
+}
+
+/**
+ * Strassen-Winograd 法による正方行列の乗算. 
+ * 2x2 のブロックに分けて 7回の乗算と 15回の加減算で積を求めることを再帰的に繰り返し, 
+ * サイズが {@code crossover} 以下になったら {@code Gemm} で計算する. 
+ * サイズが奇数のときは, ブロックに分ける際に 1行 1列ぶん 0 を詰めて偶数にする. <br />
+ * 丸め誤差の出方が通常の乗算と少し異なるので, {@code mulalgo strassen} で明示的に選んだときだけ使う. 
+ */
+class Strassen {
     /**
-     * 自身を与えられたdouble型の実数でスカラー倍した結果の行列を新たに生成して返す. 
-     * @param a 行列をスカラー倍する実数
-     * @return 行列のスカラー倍 {@code this} * {@code a} の結果となる行列.  
+     * {@code Matrix.mul} が Strassen-Winograd 法を使うときに {@code true}. 
      */
-    Matrix smul(double a) {
-        // あとは単純なスカラー倍
-        Matrix ret = new Matrix(m, n);
-        for(int i = 0; i < m; i++) {
-            for(int j = 0; j < n; j++) {
-                ret.vals[i][j] = this.vals[i][j] * a;
-            }
-        }
-        return ret;
+    static boolean enabled = false;
+    /**
+     * これより大きなサイズのときだけ再帰的に分割する. 
+     */
+    static int crossover = 512;
+
+    /**
+     * 与えられた乗算に Strassen-Winograd 法を使うべきときに {@code true} を返す. 
+     * @param a 左から掛ける行列
+     * @param b 右から掛ける行列
+     * @return 有効にされていて, 両方が同じサイズの正方行列で, サイズが {@code crossover} より大きいときに {@code true}. 
+     */
+    static boolean applies(Matrix a, Matrix b) {
+        return enabled && a.m == a.n && b.m == b.n && a.n == b.m && a.n > crossover;
     }
+
     /**
-     * 与えられた行列と自身の乗算結果の行列を新たに生成して返す. 
-     * @param mat 乗算する行列
-     * @return 行列乗算 {@code this} * {@code mat} の結果となる行列. 
-     *         サイズ違いなどで計算不可能な場合には {@code null}. 
+     * 正方行列 {@code a} と {@code b} の積を新たに生成して返す. 
+     * @param a 左から掛ける行列
+     * @param b 右から掛ける行列
+     * @return {@code a} * {@code b} の結果となる行列（行優先）. 
      */
-    Matrix mul(Matrix mat) {
-        // 計算できないときには null を返す. 
-        if(mat == null || this.n != mat.m) return null;
-        // あとは公式どおり乗算
-        Matrix ret = new Matrix(this.m, mat.n);
-        for(int i = 0; i < this.m; i++) {
-            for(int j = 0; j < mat.n; j++) {
-		for(int k = 0; k < this.n; k++){
-		    ret.vals[i][j] += this.vals[i][k] * mat.vals[k][j];
-		}
-            }
+    static Matrix mul(Matrix a, Matrix b) {
+        int n = a.n;
+        Matrix c = new Matrix(n, n);
+        if(n <= crossover) {
+            Gemm.gemm(1.0, a, b, c);
+            return c;
         }
-        return ret;
+        int h = (n + 1) / 2; // 奇数なら 0 を詰めて h x h のブロック 4つにする
+        Matrix a11 = quad(a, 0, 0, h), a12 = quad(a, 0, h, h), a21 = quad(a, h, 0, h), a22 = quad(a, h, h, h);
+        Matrix b11 = quad(b, 0, 0, h), b12 = quad(b, 0, h, h), b21 = quad(b, h, 0, h), b22 = quad(b, h, h, h);
+        // Winograd の形: 加減算は 8回 + 7回
+        Matrix s1 = plus(a21, a22), s2 = minus(s1, a11), s3 = minus(a11, a21), s4 = minus(a12, s2);
+        Matrix t1 = minus(b12, b11), t2 = minus(b22, t1), t3 = minus(b22, b12), t4 = minus(t2, b21);
+        Matrix p1 = mul(a11, b11), p2 = mul(a12, b21), p3 = mul(s4, b22), p4 = mul(a22, t4);
+        Matrix p5 = mul(s1, t1), p6 = mul(s2, t2), p7 = mul(s3, t3);
+        Matrix u2 = plus(p1, p6), u3 = plus(u2, p7), u4 = plus(u2, p5);
+        put(c, plus(p1, p2), 0, 0);     // C11 = P1 + P2
+        put(c, plus(u4, p3), 0, h);     // C12 = U4 + P3
+        put(c, minus(u3, p4), h, 0);    // C21 = U3 - P4
+        put(c, plus(u3, p5), h, h);     // C22 = U3 + P5
+        return c;
     }
-    
+
     /**
-     * 与えられたサイズの単位行列を新たに生成して返す. 
-     * @param n 生成する行列のサイズ
-     * @return {@code n}×{@code n} の単位行列
+     * {@code a} の (r0, c0) から始まる {@code h}×{@code h} のブロックをコピーして返す. 
+     * {@code a} の範囲外の部分は 0 にする. 
      */
-    public static Matrix eye(int n) {
-        Matrix ret = new Matrix(n, n); // これは nxn のゼロ行列
-        for(int i = 0; i < n; i++) {
-            ret.vals[i][i] = 1;  // 対角に 1 を入れる
+    static Matrix quad(Matrix a, int r0, int c0, int h) {
+        Matrix q = new Matrix(h, h);
+        int rows = Math.min(h, a.m - r0), cols = Math.min(h, a.n - c0);
+        for(int i = 0; i < rows; i++) {
+            for(int j = 0; j < cols; j++) {
+                q.vals[i * h + j] = a.get(r0 + i, c0 + j);
+            }
         }
-        return ret;
+        return q;
     }
 
     /**
-     * 現在の結果である行列の逆行列を新たに生成して返す.
-     * @return {@code this}の逆行列となる行列．
-     * 正方行列でない場合には {@code null}. 
+     * {@code q} を {@code c} の (r0, c0) から始まる位置に書き込む. {@code c} の範囲外の部分は捨てる. 
      */
-    Matrix inv(){
-	// 正方行列でないときには null を返す. 
-        if(this.m != this.n) return null;
-	Matrix ret = new Matrix(this);//現在の行列
-        Matrix res = new Matrix(this.m, this.m);
-	res = Matrix.eye(this.m); // これは mxm の単位行列,最終的に逆行列になる
-	double buf;  //一時的にデータを保存する変数
-	//掃き出し法で逆行列を導出
-        for(int i = 0; i < this.m; i++) {
-	    buf = 1 / ret.vals[i][i];
-	    for(int j = 0; j < this.m; j++){
-		ret.vals[i][j] *= buf;
-		res.vals[i][j] *= buf;
-	    }
-	    for(int j = 0; j < this.m; j++){
-		if(i != j){
-		    buf = ret.vals[j][i];
-		    for(int k = 0; k < this.m; k++){
-			ret.vals[j][k] -= ret.vals[i][k] * buf;
-			res.vals[j][k] -= res.vals[i][k] * buf;
-		    }
-		}
-	    }
+    static void put(Matrix c, Matrix q, int r0, int c0) {
+        int rows = Math.min(q.m, c.m - r0), cols = Math.min(q.n, c.n - c0);
+        for(int i = 0; i < rows; i++) {
+            System.arraycopy(q.vals, i * q.n, c.vals, (r0 + i) * c.n + c0, cols);
         }
-        return res;
     }
 
-     /**
-     * 現在の結果である行列の上三角行列を新たに生成して返す.
-     * @return {@code this}の上三角行列となる行列．
-     * 正方行列でない場合には {@code null}. 
+    /**
+     * 同じサイズの（行優先で詰まった）ブロックの和. 
      */
-    Matrix umat(){
-	// 正方行列でないときには null を返す. 
-        if(this.m != this.n) return null;
-        Matrix ret = new Matrix(this); // 現在の行列
-	double buf;  //一時的にデータを保存する変数
-	//上三角行列を導出
-        for(int i = 0; i < this.m; i++) {
-	    for(int j = 0; j < this.m; j++){
-		if(i < j){
-		    buf = ret.vals[j][i] / ret.vals[i][i];
-		    for(int k = 0; k < this.m; k++){
-			ret.vals[j][k] -= ret.vals[i][k]*buf;
-		    }
-		}
-	    }
-
-	}
-        return ret;
+    static Matrix plus(Matrix x, Matrix y) {
+        Matrix z = new Matrix(x.m, x.n);
+        Matrix.kernels.add(x.m * x.n, x.vals, 0, y.vals, 0, z.vals, 0);
+        return z;
     }
 
     /**
-     * 現在の結果である行列の下三角行列を新たに生成して返す.
-     * @return {@code this}の下三角行列となる行列．
-     * 正方行列でない場合には {@code null}. 
+     * 同じサイズの（行優先で詰まった）ブロックの差. 
      */
-    Matrix lmat(){
-	//正方行列でないときには null を返す. 
-        if(this.m != this.n) return null;
-	//上三角行列と下三角行列の積がもとの行列になることを使って，元の行列を上三角行列で割って下三角行列を求める
-        Matrix v = new Matrix(this);
-	v = v.umat();
-	Matrix w = v.inv();
-	return this.mul(w);
+    static Matrix minus(Matrix x, Matrix y) {
+        Matrix z = new Matrix(x);
+        Matrix.kernels.axpy(x.m * x.n, -1, y.vals, 0, z.vals, 0);
+        return z;
     }
+}
 
+/**
+ * 行列の要素を Java のヒープの外に置くための領域. 
+ * 実装は Foreign Memory API（{@code java.lang.foreign}）を使う {@code OffHeapStorage}（offheap/MatrixOffHeap.java）. 
+ * 領域は GC ではなく {@code free} で明示的に解放する. <br />
+ * 領域自体は {@code long} の添字で読み書きするが, 行列の添字（{@link Matrix#idx(int, int)}）は {@code int} なので, 
+ * 1つの行列の要素は 2^31 - 1 個（約 16 GB）までになる. それより大きなデータは複数の行列に分けて置く. 
+ */
+abstract class MatrixStorage {
     /**
-     * 現在の結果である行列の行列式の値を返す.
-     * @return {@code this}の行列式の値．
-     * 正方行列でない場合には {@code 0}. 
+     * この領域を要素に持つ行列を保存している {@code Memory} の変数の数. 
+     * ビューも元の行列と同じ領域を指すので, 行列ではなく領域ごとに数える. 
      */
-    double determ(){
-	// 正方行列でないときには 0 を返す. 
-        if(this.m != this.n) return 0;
-	//上三角行列の対角成分の積が行列式の値であることを使っている
-        double x = 1;
-	Matrix v = new Matrix(this);
-	v = v.umat();
-	for(int i = 0; i < v.m;i++){
-	    x *= v.vals[i][i];
-	}
-	return x;
-    }
+    int refs = 0;
+    /**
+     * 添字 {@code i} の要素を返す. 
+     */
+    abstract double get(long i);
+    /**
+     * 添字 {@code i} の要素を書き換える. 
+     */
+    abstract void set(long i, double v);
+    /**
+     * 領域を解放する. 解放後に要素を読み書きすると例外が投げられる. 
+     */
+    abstract void free();
 
-     /**
-     * 現在の行列が正則でないときに {@code true} を返す. 
-     * @return {@code this} の行列式の値が０である場合 {@code true}. 
+    /**
+     * {@code double} を {@code n} 個置ける領域をヒープの外に確保する. 
+     * {@code OffHeapStorage} が読み込めない（コンパイルされていない, Java のバージョンが古いなど）場合には
+     * 警告を出して {@code null} を返す. 
+     * @param n 要素の数
+     * @return 確保した領域. 確保できなければ {@code null}
      */
-    boolean nonregular() {
-        return this.determ() == 0;
+    static MatrixStorage allocate(long n) {
+        try {
+            // コンパイル時に OffHeapStorage がなくても済むようにリフレクションで生成する
+            return (MatrixStorage)Class.forName("OffHeapStorage").getDeclaredConstructor(long.class).newInstance(n);
+        } catch(ReflectiveOperationException | LinkageError e) {
+            System.err.println("Warn: off-heap storage is not available (" + e + ")");
+            return null;
+        }
     }
+}
 
-    
+/**
+ * 行列を保存するメモリ. 
+ * 変数に保存した行列の {@code refs} を数えておき, 
+ * 変数に保存された行列をコマンドがその場で書き換えてしまわないようにする. <br />
+ * {@code offheapThreshold} 個以上の要素を持つ行列は, 保存する際にヒープの外へコピーする. 
+ * ヒープ外の領域は, それを指す変数がなくなった（上書きされた）時点で解放する. 
+ */
+class MatrixMemory extends Memory<Matrix> {
     /**
-     * 現在の結果である行列を固有値分解しできた対角行列を返す.
-     * @return {@code this}を固有値分解してできた対角行列．
-     * 正方行列でない場合には {@code null}. 
+     * この数以上の要素を持つ行列は, ヒープの外に置いて保存する. 
      */
-    Matrix eigen(){
-	// 正方行列でないときには null を返す. 
-        if(this.m != this.n) return null;
-	//行列をLU分解し導出した上三角行列と下三角行列を逆順に掛ける
-	//これを新たな行列として，収束するまでこの動作を繰り返す
-        Matrix res = new Matrix(this);
-	for(int i = 0; i < 1000; i++){
-	    Matrix l = new Matrix(res);
-	    Matrix u = new Matrix(res);
-	    l = l.lmat();
-	    u = u.umat();
-	    res = u.mul(l);
-	    double e = 0.0;
-	    for(int j = 1; j < res.m;j++){
-		for(int k = 0; k < j; k++){
-		    e += Math.abs(res.vals[j][k]);
-		}
-	    }
-	    if(e < 0.00000000001) break;//収束条件
-	}
-	//収束後対角行列を作成
-	Matrix ret = new Matrix(this.m,this.n);
-	for(int a = 0; a < this.m; a++){
-	    ret.vals[a][a] = res.vals[a][a];
-	}
-	return ret;
+    long offheapThreshold = Long.MAX_VALUE;
+    /**
+     * 変数に行列を保存し, 参照の数を更新する. 
+     * 上書きされて変数から外れた行列の参照の数は減らし, 
+     * それがヒープ外の領域を指す最後の変数だったなら領域を解放する. 
+     * @param var 変数名
+     * @param val その変数に保存する行列
+     */
+    public void put(String var, Matrix val) {
+        Matrix old = mem.get(var);
+        if(old == val) return;
+        if(val.onHeap() && (long)val.m * val.n >= offheapThreshold) {
+            Matrix oh = val.toOffHeap();
+            if(oh != null) val = oh;
+        }
+        super.put(var, val);
+        val.refs++;
+        if(val.offheap != null) val.offheap.refs++;
+        if(old != null) {
+            old.refs--;
+            if(old.offheap != null && --old.offheap.refs == 0) old.offheap.free();
+        }
     }
-    
+}
+
+/**
+ * 行列をヒープの外に置くための「コマンド」. 
+ * <p><blockquote><pre>{@code
+ * offheap
+ * }</pre></blockquote><p>
+ * のような 1行「ブロック」を受け付け, 現在の「結果」をヒープの外にコピーした行列を「結果」として返す. 
+ * また, {@code offheap auto n} で, 要素数 {@code n} 以上の行列を変数に保存する際に自動的にヒープの外に置くようにする. 
+ * {@code offheap auto off} でこれをやめる. 
+ */
+class OffHeapMatrix extends CommandWithMemory<Matrix> {
     /**
-     * 「ブロック」から与えられたサイズの単位行列を新たに生成して返す. 
-     * @param block 電卓から受け取る「ブロック」.
-     * @return {@code n}×{@code} の単位行列. 行のサイズの食い違いなどで生成に失敗したら {@code null}
+     * 変数の情報を保持する {@code MatrixMemory} オブジェクトを受け取るコンストラクタ. 
+     * @param mem 変数の情報を保持するオブジェクト. 
      */
-    public static Matrix read(final List<String> block) {
+    OffHeapMatrix(MatrixMemory mem) {
+        super(mem); // 親のコンストラクタをそのまま呼ぶだけ
+    }
+    public Matrix tryExec(final String [] ts, final List<String> block, final Matrix res) {
+        if(block.size() != 1 || !"offheap".equals(ts[0])) return null;
+        if(ts.length == 1) {
+            return res.toOffHeap(); // 使えない環境では null になる
+        }
+        if(ts.length == 3 && "auto".equals(ts[1])) {
+            long th;
+            try {
+                th = "off".equals(ts[2]) ? Long.MAX_VALUE : Long.parseLong(ts[2]);
+            } catch(NumberFormatException e) {
+                return null;
+            }
+            if(th <= 0) return null;
+            ((MatrixMemory)mem).offheapThreshold = th;
+            return res;
+        }
+        return null;
+    }
+}
+
+/**
+ * 疎行列を入力して現在の「結果」をその行列にする「コマンド」. 
+ * <p><blockquote><pre>{@code
+ * spmat m n :
+ *  TAB  i j v
+ *    ...
+ * }</pre></blockquote><p>
+ * という, 1行目が {@code spmat} である複数行「ブロック」を受け付け, 
+ * {@code m}×{@code n} の行列のうち, 各行で指定した (i, j) 要素（0 始まり）が {@code v} で, 残りが 0 である疎行列を「結果」として返す. 
+ * 同じ位置を何度も指定したら値を足し合わせる. <br />
+ * 1行「ブロック」として, 現在の結果を疎行列に変換する {@code spmat} と, 
+ * 演算の結果を密な行列に変換する非零要素の割合を設定する {@code spmat density d}（既定値は 0.25）も受け付ける. 
+ */
+class SparseValue implements Command<Matrix> {
+    public Matrix tryExec(final String [] ts, final List<String> block, final Matrix res) {
+        if(!"spmat".equals(ts[0])) return null;
         try {
-            int m = block.size() - 1;  // 一行目は行列の中身ではないので無視して行数を決める
-            int n = -1;                // 列数は, 最初の行を見て決める
-            Matrix ret = null;
-            for(int i = 0; i < m; i++) {
-                StringTokenizer st = new StringTokenizer(block.get(i+1));
-                ArrayList<String> vs = new ArrayList<String>();
-                while(st.hasMoreTokens()) vs.add(st.nextToken());
-                if(n < 0) {  // 最初の行でサイズ確定 → 決定したサイズの行列をここで生成
-                    n = vs.size();
-                    ret = new Matrix(m, n);
-                } else if(n != vs.size()) {// 行の間でサイズの食い違いがあったら null
-                    return null;
-                }
-                // 要素をコピー
-                int j = 0;
-                for(String s : vs) {
-                    ret.vals[i][j++] = Double.parseDouble(s);
+            if(block.size() == 1) {
+                if(ts.length == 1) return SparseMatrix.fromDense(res);
+                String [] ws = Calculator.words(block.get(0));
+                if(ws.length == 3 && "density".equals(ws[1])) {
+                    double d = Double.parseDouble(ws[2]);
+                    if(!(d > 0 && d <= 1)) return null; // 割合でなければ受け付けない
+                    SparseMatrix.densifyThreshold = d;
+                    return res;
                 }
+                return null;
             }
-            return ret;
-        } catch(Exception e) { // なにか変な例外が生じた際にも生成失敗
+            if(ts.length != 3) return null;
+            int m = Integer.parseInt(ts[1]);
+            int n = Integer.parseInt(ts[2]);
+            int cnt = block.size() - 1;
+            int [] ri = new int[cnt], ci = new int[cnt];
+            double [] v = new double[cnt];
+            for(int p = 0; p < cnt; p++) {
+                String [] ws = Calculator.words(block.get(p + 1));
+                if(ws.length != 3) return null;
+                ri[p] = Integer.parseInt(ws[0]);
+                ci[p] = Integer.parseInt(ws[1]);
+                v[p] = Double.parseDouble(ws[2]);
+            }
+            return SparseMatrix.fromTriplets(m, n, ri, ci, v, cnt);
+        } catch(NumberFormatException e) { // 数として読めなければ受け付けない
         }
         return null;
     }
-    /**
-     * 行列を表す文字列を返す. 
-     * 例えば次のような文字列となる. 
-     * <p><blockquote><pre>{@code
-     * [   2.000    3.000    4.000]
-     * [   5.000    6.000    7.000]
-     * }</pre></blockquote><p>
-     * （各行の開始と終わりに [ と ] が置かれ, 各要素は固定幅（8.3f）で表示. 
-     */
-    public String toString() {
-        StringBuffer sb = new StringBuffer();
-        for(int i = 0; i < m; i++) {
-            sb.append("[");
-            for(int j = 0; j < n; j++) {
-                if(j > 0) sb.append(" ");
-                sb.append(String.format("%1$8.3f", vals[i][j]));
+}
+
+/**
+ * 「結果」を密な（普通の）行列に変換する「コマンド」. 
+ * <p><blockquote><pre>{@code
+ * dense
+ * }</pre></blockquote><p>
+ * のような 1行「ブロック」を受け付け, 現在の結果が疎行列か帯行列なら同じ要素を持つ密な行列を「結果」として返す. 
+ * 密な行列ならそのまま返す. 
+ */
+class DenseValue implements Command<Matrix> {
+    public Matrix tryExec(final String [] ts, final List<String> block, final Matrix res) {
+        if(block.size() == 1 && ts.length == 1 && "dense".equals(ts[0])) {
+            if(res instanceof SparseMatrix) return ((SparseMatrix)res).toDense();
+            if(res instanceof BandMatrix) return ((BandMatrix)res).toDense();
+            return res;
+        }
+        return null;
+    }
+}
+
+/**
+ * 帯行列を入力して現在の「結果」をその行列にする「コマンド」. 
+ * <p><blockquote><pre>{@code
+ * band kl ku :
+ *  TAB  上の ku 本目の副対角線の要素
+ *    ...
+ *  TAB  対角線の要素
+ *    ...
+ *  TAB  下の kl 本目の副対角線の要素
+ * }</pre></blockquote><p>
+ * という, 1行目が {@code band} である複数行「ブロック」を受け付け, 各行に上から順に並べた対角線からなる帯行列を「結果」として返す. 
+ * 対角線から上または下に d 本目の副対角線には {@code n - d} 個の要素を空白区切りで並べる（{@code n} は対角線の要素の数）. 
+ * 例えば, 次のような「ブロック」は 4×4 の三重対角行列になる. 
+ * <p><blockquote><pre>{@code
+ * band 1 1 :
+ *      -1 -1 -1
+ *      2 2 2 2
+ *      -1 -1 -1
+ * }</pre></blockquote><p>
+ * 1行「ブロック」の {@code band kl ku} は現在の結果を帯幅 {@code kl}, {@code ku} の帯行列に変換する（帯の外に 0 でない要素があれば受け付けない）. 
+ * {@code band} のみなら帯幅を調べて変換する. 
+ */
+class BandValue implements Command<Matrix> {
+    public Matrix tryExec(final String [] ts, final List<String> block, final Matrix res) {
+        if(!"band".equals(ts[0])) return null;
+        if(block.size() == 1 && ts.length == 1) {
+            int [] bw = BandMatrix.bandwidth(res);
+            return BandMatrix.of(res, bw[0], bw[1]);
+        }
+        if(ts.length != 3) return null;
+        try {
+            int kl = Integer.parseInt(ts[1]), ku = Integer.parseInt(ts[2]);
+            if(kl < 0 || ku < 0) return null;
+            if(block.size() == 1) return BandMatrix.of(res, kl, ku);
+            if(block.size() != kl + ku + 2) return null;
+            int n = Calculator.words(block.get(ku + 1)).length;
+            BandMatrix ret = new BandMatrix(n, kl, ku);
+            for(int r = 0; r <= kl + ku; r++) {
+                int d = ku - r; // j - i
+                String [] ws = Calculator.words(block.get(r + 1));
+                if(ws.length != n - Math.abs(d)) return null;
+                for(int p = 0; p < ws.length; p++) {
+                    int i = d >= 0 ? p : p - d;
+                    ret.ab[ret.bidx(i, i + d)] = Double.parseDouble(ws[p]);
+                }
             }
-            sb.append("]");
-            if(i < m - 1) sb.append("\n");
+            return ret;
+        } catch(NumberFormatException e) { // 数として読めなければ受け付けない
         }
-        return sb.toString();
+        return null;
     }
 }
 
@@ -338,13 +5560,14 @@ class Matrix {
  *      2 3 4
  *      5 6 7
  * }</pre></blockquote><p>
+ * サイズが {@code BandMatrix.autoSize} 以上の正方行列で, 0 でない要素が対角の近くの狭い帯に収まっていれば, 帯行列として返す. 
  */
 class MatrixValue implements Command<Matrix> {
     public Matrix tryExec(final String [] ts, final List<String> block, final Matrix r) {
         if(block.size() <= 1) return null;
         if(ts.length == 1 && "mat".equals(ts[0])) {
-            // 実際の読み込みは Matrix クラスに任せる
-            return Matrix.read(block);
+            // 実際の読み込みは Matrix クラスに任せる. 大きくて帯幅の狭い行列は帯行列にする
+            return BandMatrix.detect(Matrix.read(block), BandMatrix.autoSize);
         }
         return null;
     }
@@ -420,18 +5643,40 @@ class MatrixAdd extends CommandWithMemory<Matrix> {
     MatrixAdd(Memory<Matrix> mem) {
         super(mem); // 親のコンストラクタをそのまま呼ぶだけ
     }
+    /**
+     * 現在の「結果」に演算結果を書き込む先を返す. 
+     * 「結果」が変数に保存されていなければ「結果」そのものを使い回し, そうでなければ新たに確保する. 
+     * @param res 現在の「結果」
+     * @return 演算結果の書き込み先
+     */
+    static Matrix dest(Matrix res) {
+        return res.reusable() ? res : new Matrix(res.m, res.n, res.colMajor());
+    }
+    /**
+     * 現在の「結果」に {@code a} 倍した行列を足した結果を返す. 加算と減算の共通部分. 
+     * 疎行列どうしなら疎行列のまま計算し, そうでなければ {@code dest} の返す行列に書き込む. 
+     * @param res 現在の「結果」
+     * @param a 係数
+     * @param v 足す行列
+     * @return 演算結果. サイズ違いなどで計算不可能な場合には {@code null}. 
+     */
+    static Matrix combine(Matrix res, double a, Matrix v) {
+        if(v == null || res.sizeMismatch(v)) return null;
+        if(res instanceof SparseMatrix && v instanceof SparseMatrix) return ((SparseMatrix)res).plus(a, (SparseMatrix)v);
+        return res.axpyInto(a, v, dest(res));
+    }
     public Matrix tryExec(final String [] ts, final List<String> block, final Matrix res) {
         // 行列の値を直接書く場合
         if(block.size() > 1 && ts.length == 1 && "add".equals(ts[0])){
             // 実際の読み込みと加算は Matrix クラスに任せる
             Matrix v = Matrix.read(block);
-            return res.add(v);
+            return combine(res, 1, v);
         }
         // 行列を保存した変数が指定された場合
         if(block.size() == 1 && ts.length == 2 && "add".equals(ts[0])) {
             // 変数の値をメモリから取得
             Matrix v = mem.get(ts[1]);
-            return res.add(v); // 実際の加算は Matrix クラス任せ
+            return combine(res, 1, v); // 実際の加算は Matrix クラス任せ
         }
         return null;
     }
@@ -453,7 +5698,8 @@ class MatrixScalarMul implements Command<Matrix> {
         if(block.size() == 1 && ts.length == 2 && "smul".equals(ts[0])) {
             // 変数の値をメモリから取得
             double a = Double.parseDouble(ts[1]);
-            return res.smul(a); // 実際の加算は Matrix クラス任せ
+            // 変数に保存されていない「結果」ならその場で書き換える
+            return res.reusable() ? res.scaleInPlace(a) : res.smul(a); // 実際の計算は Matrix クラス任せ
         }
         return null;
     }
@@ -493,15 +5739,13 @@ class MatrixSub extends CommandWithMemory<Matrix> {
         if(block.size() > 1 && ts.length == 1 && "sub".equals(ts[0])){
             // 実際の読み込みと減算は Matrix クラスに任せる
             Matrix v = Matrix.read(block);
-	    v = v.smul(-1);
-            return res.add(v);
+            return MatrixAdd.combine(res, -1, v);
         }
         // 行列を保存した変数が指定された場合
         if(block.size() == 1 && ts.length == 2 && "sub".equals(ts[0])) {
             // 変数の値をメモリから取得
             Matrix v = mem.get(ts[1]);
-	    v = v.smul(-1);
-            return res.add(v); // 実際の減算は Matrix クラス任せ
+            return MatrixAdd.combine(res, -1, v); // 実際の減算は Matrix クラス任せ
         }
         return null;
     }
@@ -524,32 +5768,114 @@ class MatrixSub extends CommandWithMemory<Matrix> {
  *      1 0 1
  *      0 1 0
  * }</pre></blockquote><p>
- * <br />
- * もしくは, {@code mul} の後ろに変数名を書いた 1行の「ブロック」を受け付け, 
- * 変数に保存された行列を掛けた「結果」を返す.  
+ * <br />
+ * もしくは, {@code mul} の後ろに変数名を書いた 1行の「ブロック」を受け付け, 
+ * 変数に保存された行列を掛けた「結果」を返す.  
+ */
+class MatrixMul extends CommandWithMemory<Matrix> {
+    /**
+     * 変数の情報を保持する {@code Memory} オブジェクトを受け取るコンストラクタ. 
+     * @param mem 変数の情報を保持するオブジェクト. 
+     */
+    MatrixMul(Memory<Matrix> mem) {
+        super(mem); // 親のコンストラクタをそのまま呼ぶだけ
+    }
+    public Matrix tryExec(final String [] ts, final List<String> block, final Matrix res) {
+        // 行列の値を直接書く場合
+        if(block.size() > 1 && ts.length == 1 && "mul".equals(ts[0])){
+            // 実際の読み込みと乗算は Matrix クラスに任せる
+            Matrix v = Matrix.read(block);
+            return res.mul(v);
+        }
+        // 行列を保存した変数が指定された場合
+        if(block.size() == 1 && ts.length == 2 && "mul".equals(ts[0])) {
+            // 変数の値をメモリから取得
+            Matrix v = mem.get(ts[1]);
+            return res.mul(v); // 実際の乗算は Matrix クラス任せ
+        }
+        return null;
+    }
+}
+
+/**
+ * 行列の積和 {@code alpha * A * B + beta * C} を一度に計算する「コマンド」（BLAS の GEMM）. 
+ * <p><blockquote><pre>{@code
+ * gemm a b alpha beta
+ * }</pre></blockquote><p>
+ * のような 1行「ブロック」を受け付け, 変数 {@code a}, {@code b} に保存された行列と現在の「結果」C から
+ * {@code alpha * a * b + beta * C} を計算して「結果」として返す. 
+ * {@code beta} を省略すると 1, さらに {@code alpha} を省略すると 1 とする. 
+ * 例えば, 次のような「ブロック」を入力として受け付ける. 
+ * <p><blockquote><pre>{@code
+ * gemm a b 2.0 0.5
+ * }</pre></blockquote><p>
+ * 一時的な行列は作らず, 「結果」が変数に保存されていなければその場で書き換える. 
+ */
+class MatrixGemm extends CommandWithMemory<Matrix> {
+    /**
+     * 変数の情報を保持する {@code Memory} オブジェクトを受け取るコンストラクタ. 
+     * @param mem 変数の情報を保持するオブジェクト. 
+     */
+    MatrixGemm(Memory<Matrix> mem) {
+        super(mem); // 親のコンストラクタをそのまま呼ぶだけ
+    }
+    public Matrix tryExec(final String [] ts, final List<String> block, final Matrix res) {
+        if(block.size() != 1 || !"gemm".equals(ts[0])) return null;
+        // 実数を読むので記号で切らずに空白だけで分割し直す
+        String [] ws = Calculator.words(block.get(0));
+        if(ws.length < 3 || ws.length > 5) return null;
+        Matrix a = mem.get(ws[1]), b = mem.get(ws[2]);
+        if(a == null) throw new UnknownVariableException(ws[1]);
+        if(b == null) throw new UnknownVariableException(ws[2]);
+        double alpha, beta;
+        try {
+            alpha = ws.length > 3 ? Double.parseDouble(ws[3]) : 1;
+            beta = ws.length > 4 ? Double.parseDouble(ws[4]) : 1;
+        } catch(NumberFormatException e) { // 数として読めなければ受け付けない
+            return null;
+        }
+        // 変数に保存されていない「結果」ならその場で書き換える（変数 a, b とは必ず別物になる）
+        Matrix c;
+        if(beta == 0) {
+            // 元の値は使わないので, 大きさが違えば新たに確保するだけでよい
+            c = res.reusable() && res.m == a.m && res.n == b.n ? res : new Matrix(a.m, b.n);
+        } else {
+            c = res.reusable() ? res : new Matrix(res);
+        }
+        return c.gemm(alpha, a, b, beta); // 実際の計算は Matrix クラス任せ
+    }
+}
+
+/**
+ * 行列の定数倍の加算 {@code C + alpha * X} の「コマンド」（BLAS の AXPY）. 
+ * <p><blockquote><pre>{@code
+ * axpy x alpha
+ * }</pre></blockquote><p>
+ * のような 1行「ブロック」を受け付け, 現在の「結果」C に変数 {@code x} に保存された行列の {@code alpha} 倍を足した
+ * 「結果」を返す. {@code alpha} を省略すると 1 とする. 
+ * {@code smul} と {@code add} を続けるのと違い, 一時的な行列は作らない. 
  */
-class MatrixMul extends CommandWithMemory<Matrix> {
+class MatrixAxpy extends CommandWithMemory<Matrix> {
     /**
      * 変数の情報を保持する {@code Memory} オブジェクトを受け取るコンストラクタ. 
      * @param mem 変数の情報を保持するオブジェクト. 
      */
-    MatrixMul(Memory<Matrix> mem) {
+    MatrixAxpy(Memory<Matrix> mem) {
         super(mem); // 親のコンストラクタをそのまま呼ぶだけ
     }
     public Matrix tryExec(final String [] ts, final List<String> block, final Matrix res) {
-        // 行列の値を直接書く場合
-        if(block.size() > 1 && ts.length == 1 && "mul".equals(ts[0])){
-            // 実際の読み込みと乗算は Matrix クラスに任せる
-            Matrix v = Matrix.read(block);
-            return res.mul(v);
-        }
-        // 行列を保存した変数が指定された場合
-        if(block.size() == 1 && ts.length == 2 && "mul".equals(ts[0])) {
-            // 変数の値をメモリから取得
-            Matrix v = mem.get(ts[1]);
-            return res.mul(v); // 実際の乗算は Matrix クラス任せ
+        if(block.size() != 1 || !"axpy".equals(ts[0])) return null;
+        String [] ws = Calculator.words(block.get(0));
+        if(ws.length < 2 || ws.length > 3) return null;
+        Matrix x = mem.get(ws[1]);
+        if(x == null) throw new UnknownVariableException(ws[1]);
+        double alpha;
+        try {
+            alpha = ws.length > 2 ? Double.parseDouble(ws[2]) : 1;
+        } catch(NumberFormatException e) { // 数として読めなければ受け付けない
+            return null;
         }
-        return null;
+        return res.axpyInto(alpha, x, MatrixAdd.dest(res)); // 実際の計算は Matrix クラス任せ
     }
 }
 
@@ -585,20 +5911,18 @@ class MatrixDiv extends CommandWithMemory<Matrix> {
     public Matrix tryExec(final String [] ts, final List<String> block, final Matrix res) {
         // 行列の値を直接書く場合
         if(block.size() > 1 && ts.length == 1 && "div".equals(ts[0])){
-	    // 割る側の行列の逆行列を求め,それを割られる側の行列に掛ける
-	    // 実際の読み込みと逆行列の導出,逆行列との乗算は Matrix クラスに任せる
+	    // 割る側の行列の LU 分解から X * v = res を解く（逆行列は作らない）
+	    // 実際の読み込みと計算は Matrix クラスに任せる
             Matrix v = Matrix.read(block);
-	    Matrix w = v.inv();
-            return res.mul(w);
+            return res.rdiv(v);
         }
         // 行列を保存した変数が指定された場合
         if(block.size() == 1 && ts.length == 2 && "div".equals(ts[0])) {
             // 変数の値をメモリから取得
             Matrix v = mem.get(ts[1]);
-	    // 割る側の行列の逆行列を求め,それを割られる側の行列に掛ける
-	    // 逆行列の導出,逆行列との乗算は Matrix クラスに任せる
-	    Matrix w = v.inv();
-            return res.mul(w);        
+	    // 割る側の行列の LU 分解から X * v = res を解く
+	    // 実際の計算は Matrix クラスに任せる
+            return res.rdiv(v);
         }
         return null;
     }
@@ -614,29 +5938,97 @@ class MatrixDiv extends CommandWithMemory<Matrix> {
 class InverseMatrix implements Command<Matrix> {
     public Matrix tryExec(final String [] ts, final List<String> block, final Matrix res) {
         if(block.size() == 1 && ts.length == 1 && "inv".equals(ts[0])) {
-	    //行列式の値の導出，それを用いて正則かどうか判定
-	    double v = res.determ();
+	    // 大きな帯行列なら帯の LU 分解から求める
+	    Matrix b = BandMatrix.detect(res, BandMatrix.autoSize);
+	    if(b instanceof BandMatrix) {
+		BandLUDecomposition f = ((BandMatrix)b).bandLU();
+		System.out.println(String.format("行列式：%1$8.3f\n", f.det()));
+		if(f.singular) {
+		    System.out.println("逆行列は存在しません");
+		    return res;
+		}
+		return f.inverse();
+	    }
+	    // 対称正定値行列ならコレスキー分解から行列式と逆行列を求める（正定値なら必ず正則）
+	    CholeskyDecomposition c = res.chol();
+	    if(c != null) {
+		System.out.println(String.format("行列式：%1$8.3f\n", c.det()));
+		return c.inverse();
+	    }
+	    // そうでなければ LU 分解は一度だけ行い, 行列式も正則かどうかの判定も逆行列もそこから求める
+	    // （正方行列でなければ分解はせず, 行列式 0 の正則でない行列として扱う）
+	    LUDecomposition f = res.lu();
+	    double v = f == null ? 0 : f.det();
 	    System.out.println(String.format("行列式：%1$8.3f\n", v));
-	    if(res.nonregular()){
+	    if(f == null || f.singular){
 		//正則でない場合
 		//メッセージを出し，現在の行列をそのまま返す
 		System.out.println("逆行列は存在しません");
 		return res;
 	    }else{
 		//正則である場合
-		return res.inv(); // 実際の計算は Matrix クラス任せ
+		return f.inverse(); // 実際の計算は LUDecomposition クラス任せ
 	    }
         }
         return null;
     }
 }
 
+/**
+ * 「結果」の転置行列を現在の「結果」にする「コマンド」. 
+ * <p><blockquote><pre>{@code
+ * t
+ * }</pre></blockquote><p>
+ * のような 1行「ブロック」を受け付け, 現在の結果の転置行列を「結果」として返す. 
+ * 要素はコピーせず, 元の行列の要素を共有するビューを返す. 
+ */
+class TransposeMatrix implements Command<Matrix> {
+    public Matrix tryExec(final String [] ts, final List<String> block, final Matrix res) {
+        if(block.size() == 1 && ts.length == 1 && "t".equals(ts[0])) {
+            return res.t(); // 実際の計算は Matrix クラス任せ
+        }
+        return null;
+    }
+}
+
+/**
+ * 「結果」の一部分を現在の「結果」にする「コマンド」. 
+ * <p><blockquote><pre>{@code
+ * slice r0 r1 c0 c1
+ * }</pre></blockquote><p>
+ * のような 1行「ブロック」を受け付け, 現在の結果の行 {@code r0}..{@code r1-1}, 列 {@code c0}..{@code c1-1} の
+ * 部分行列を「結果」として返す（行と列の番号は 0 から数える）. 
+ * また, {@code row i} で {@code i} 行目を, {@code col j} で {@code j} 列目を返す. 
+ * いずれも要素はコピーせず, 元の行列の要素を共有するビューを返す. 
+ * 例えば {@code load x} の後に使えば, 変数 x の行列を複製せずにその一部分だけを扱える. 
+ */
+class SliceMatrix implements Command<Matrix> {
+    public Matrix tryExec(final String [] ts, final List<String> block, final Matrix res) {
+        if(block.size() != 1) return null;
+        try {
+            if(ts.length == 5 && "slice".equals(ts[0])) {
+                return res.slice(Integer.parseInt(ts[1]), Integer.parseInt(ts[2]),
+                                 Integer.parseInt(ts[3]), Integer.parseInt(ts[4]));
+            }
+            if(ts.length == 2 && "row".equals(ts[0])) {
+                return res.row(Integer.parseInt(ts[1]));
+            }
+            if(ts.length == 2 && "col".equals(ts[0])) {
+                return res.col(Integer.parseInt(ts[1]));
+            }
+        } catch(NumberFormatException e) { // 数として読めなければ受け付けない
+        }
+        return null;
+    }
+}
+
 /**
  * 「結果」の上三角行列を現在の「結果」にする「コマンド」. 
  * <p><blockquote><pre>{@code
  * umat
  * }</pre></blockquote><p>
  * のような 1行「ブロック」を受け付け, 現在の結果の上三角行列を「結果」として返す. 
+ * 部分ピボット選択付きの LU 分解 {@code PA = LU} の U である. 
  */
 class UMatrix implements Command<Matrix> {
     public Matrix tryExec(final String [] ts, final List<String> block, final Matrix res) {
@@ -653,6 +6045,7 @@ class UMatrix implements Command<Matrix> {
  * lmat
  * }</pre></blockquote><p>
  * のような 1行「ブロック」を受け付け, 現在の結果の下三角行列を「結果」として返す. 
+ * 部分ピボット選択付きの LU 分解 {@code PA = LU} の（対角が 1 の）L である. 
  */
 class LMatrix implements Command<Matrix> {
     public Matrix tryExec(final String [] ts, final List<String> block, final Matrix res) {
@@ -664,12 +6057,257 @@ class LMatrix implements Command<Matrix> {
     }
 }
 
+/**
+ * 「結果」の LU 分解の行の入れ替えを表す置換行列を現在の「結果」にする「コマンド」. 
+ * <p><blockquote><pre>{@code
+ * pmat
+ * }</pre></blockquote><p>
+ * のような 1行「ブロック」を受け付け, 部分ピボット選択付きの LU 分解 {@code PA = LU} の P を「結果」として返す. 
+ */
+class PMatrix implements Command<Matrix> {
+    public Matrix tryExec(final String [] ts, final List<String> block, final Matrix res) {
+        if(block.size() == 1 && ts.length == 1 && "pmat".equals(ts[0])) {
+	    return res.pmat();
+        }
+        return null;
+    }
+}
+
+/**
+ * 「結果」のコレスキー分解 {@code A = L L^T} の下三角行列を現在の「結果」にする「コマンド」. 
+ * <p><blockquote><pre>{@code
+ * chol
+ * }</pre></blockquote><p>
+ * のような 1行「ブロック」を受け付け, 現在の結果をコレスキー分解した L を「結果」として返す. 
+ * 対称正定値行列でない場合は受け付けない. 
+ */
+class CholeskyMatrix implements Command<Matrix> {
+    public Matrix tryExec(final String [] ts, final List<String> block, final Matrix res) {
+        if(block.size() == 1 && ts.length == 1 && "chol".equals(ts[0])) {
+            CholeskyDecomposition c = res.chol();
+            return c == null ? null : c.lower();
+        }
+        return null;
+    }
+}
+
+/**
+ * 「結果」を QR 分解し, Q と R を変数に保存する「コマンド」. 
+ * <p><blockquote><pre>{@code
+ * qr q r
+ * }</pre></blockquote><p>
+ * のような 1行「ブロック」を受け付け, 現在の結果（{@code m}×{@code n}）を Householder 変換で QR 分解して, 
+ * 列が正規直交な {@code m}×{@code min(m,n)} の行列 Q を変数 {@code q} に, 
+ * 上三角行列 R を変数 {@code r} に保存し, R を「結果」として返す. 
+ * {@code q} と {@code r} が同じ変数名の場合は受け付けない. 
+ */
+class QRMatrix extends CommandWithMemory<Matrix> {
+    /**
+     * 変数の情報を保持する {@code Memory} オブジェクトを受け取るコンストラクタ. 
+     * @param mem 変数の情報を保持するオブジェクト. 
+     */
+    QRMatrix(Memory<Matrix> mem) {
+        super(mem); // 親のコンストラクタをそのまま呼ぶだけ
+    }
+    public Matrix tryExec(final String [] ts, final List<String> block, final Matrix res) {
+        if(block.size() == 1 && ts.length == 3 && "qr".equals(ts[0])) {
+            if(ts[1].equals(ts[2])) return null; // Q を R で上書きしてしまうので受け付けない
+            QRDecomposition f = res.qr();
+            Matrix r = f.r();
+            mem.put(ts[1], f.q());
+            mem.put(ts[2], r);
+            return r;
+        }
+        return null;
+    }
+}
+
+/**
+ * 最小二乗法の「コマンド」. 
+ * <p><blockquote><pre>{@code
+ * lsq
+ * lsq k
+ * }</pre></blockquote><p>
+ * のような 1行「ブロック」を受け付け, 現在の結果を縦長の拡大係数行列 [A | B]（B は最後の {@code k} 列, 省略時は 1 列）とみて, 
+ * {@code |AX - B|} を最小にする {@code X} を「結果」として返す. 
+ * A の QR 分解から求めるので, 行が何百万ある縦長の行列でも {@code A^T A} を作らずに解ける. <br />
+ * A が横長の場合や, A の列が一次従属の場合は受け付けない. 
+ */
+class LeastSquares implements Command<Matrix> {
+    public Matrix tryExec(final String [] ts, final List<String> block, final Matrix res) {
+        if(block.size() == 1 && (ts.length == 1 || ts.length == 2) && "lsq".equals(ts[0])) {
+            int k;
+            try {
+                k = ts.length == 2 ? Integer.parseInt(ts[1]) : 1;
+            } catch(NumberFormatException e) { // 数として読めなければ受け付けない
+                return null;
+            }
+            if(k < 1 || k >= res.n) return null;
+            // 係数行列と右辺に分ける（コピーせずにビューで）
+            Matrix a = res.slice(0, res.m, 0, res.n - k);
+            Matrix b = res.slice(0, res.m, res.n - k, res.n);
+            return a.lsq(b);
+        }
+        return null;
+    }
+}
+
+/**
+ * 「結果」を特異値分解し, 特異値を並べた対角行列を現在の「結果」にする「コマンド」. 
+ * <p><blockquote><pre>{@code
+ * svd
+ * svd k
+ * svd u v
+ * svd k u v
+ * }</pre></blockquote><p>
+ * のような 1行「ブロック」を受け付け, 現在の結果の特異値を降順に並べた対角行列を「結果」として返す. 
+ * {@code k} を与えると大きい方から {@code k} 個だけ求める. 
+ * 変数名 {@code u}, {@code v} を与えると, 左右の特異ベクトルを列に並べた行列をそれぞれの変数に保存する. 
+ * {@code u} と {@code v} が同じ変数名の場合は受け付けない. 
+ */
+class SingularValue extends CommandWithMemory<Matrix> {
+    /**
+     * 変数の情報を保持する {@code Memory} オブジェクトを受け取るコンストラクタ. 
+     * @param mem 変数の情報を保持するオブジェクト. 
+     */
+    SingularValue(Memory<Matrix> mem) {
+        super(mem); // 親のコンストラクタをそのまま呼ぶだけ
+    }
+    public Matrix tryExec(final String [] ts, final List<String> block, final Matrix res) {
+        if(block.size() != 1 || !"svd".equals(ts[0])) return null;
+        int top = 0;
+        int i = 1;
+        try {
+            if(ts.length == 2 || ts.length == 4) top = Integer.parseInt(ts[i++]);
+        } catch(NumberFormatException e) { // 数として読めなければ受け付けない
+            return null;
+        }
+        if(ts.length - i != 0 && ts.length - i != 2) return null;
+        boolean vectors = ts.length - i == 2;
+        if(vectors && ts[i].equals(ts[i + 1])) return null; // U を V で上書きしてしまうので受け付けない
+        SingularValueDecomposition d = res.svd(top, vectors);
+        if(!d.converged) return null;
+        if(vectors) {
+            mem.put(ts[i], d.u);
+            mem.put(ts[i + 1], d.v);
+        }
+        return d.sigma();
+    }
+}
+
+/**
+ * 乱択アルゴリズムで「結果」の上位 k 個の特異値を求め, 対角行列にして現在の「結果」にする「コマンド」. 
+ * <p><blockquote><pre>{@code
+ * rsvd k
+ * rsvd k q
+ * rsvd k q seed
+ * rsvd k q seed u v
+ * }</pre></blockquote><p>
+ * のような 1行「ブロック」を受け付け, 上位 {@code k} 個の特異値の近似値を降順に並べた対角行列を「結果」として返す. 
+ * {@code q} は冪乗反復の回数（省略時は 2）, {@code seed} は乱数の種（省略時は 0）で, 同じ種なら同じ結果になる. 
+ * 変数名 {@code u}, {@code v} を与えると, 左右の特異ベクトルの近似をそれぞれの変数に保存する. 
+ * {@code u} と {@code v} が同じ変数名の場合は受け付けない. 
+ */
+class RandomizedSingularValue extends CommandWithMemory<Matrix> {
+    /**
+     * 変数の情報を保持する {@code Memory} オブジェクトを受け取るコンストラクタ. 
+     * @param mem 変数の情報を保持するオブジェクト. 
+     */
+    RandomizedSingularValue(Memory<Matrix> mem) {
+        super(mem); // 親のコンストラクタをそのまま呼ぶだけ
+    }
+    public Matrix tryExec(final String [] ts, final List<String> block, final Matrix res) {
+        if(block.size() != 1 || ts.length < 2 || !"rsvd".equals(ts[0])) return null;
+        // 数の引数（k, q, seed）の後に変数名が 0 個か 2 個
+        int nums = 1;
+        while(nums < ts.length && nums < 4 && ts[nums].matches("\\d+")) nums++;
+        int names = ts.length - nums;
+        if(nums < 2 || (names != 0 && names != 2)) return null;
+        if(names == 2 && ts[nums].equals(ts[nums + 1])) return null; // U を V で上書きしてしまうので受け付けない
+        int k, q;
+        long seed;
+        try {
+            k = Integer.parseInt(ts[1]);
+            q = nums > 2 ? Integer.parseInt(ts[2]) : 2;
+            seed = nums > 3 ? Long.parseLong(ts[3]) : 0;
+        } catch(NumberFormatException e) { // 大きすぎて読めなければ受け付けない
+            return null;
+        }
+        if(k < 1) return null;
+        SingularValueDecomposition d = res.rsvd(k, q, seed, names == 2);
+        if(!d.converged) return null;
+        if(names == 2) {
+            mem.put(ts[nums], d.u);
+            mem.put(ts[nums + 1], d.v);
+        }
+        return d.sigma();
+    }
+}
+
+/**
+ * 「結果」の階数を表示する「コマンド」. 
+ * <p><blockquote><pre>{@code
+ * rank
+ * }</pre></blockquote><p>
+ * のような 1行「ブロック」を受け付け, 特異値分解から求めた数値的な階数（しきい値 {@code max(m,n) * eps * σ_max} を超える特異値の数）を表示する. 
+ * 「結果」は変えない. 
+ */
+class MatrixRank implements Command<Matrix> {
+    public Matrix tryExec(final String [] ts, final List<String> block, final Matrix res) {
+        if(block.size() == 1 && ts.length == 1 && "rank".equals(ts[0])) {
+            System.out.println("階数：" + res.svd(0, false).rank());
+            return res;
+        }
+        return null;
+    }
+}
+
+/**
+ * 「結果」の条件数を表示する「コマンド」. 
+ * <p><blockquote><pre>{@code
+ * cond
+ * }</pre></blockquote><p>
+ * のような 1行「ブロック」を受け付け, 2 ノルムの条件数（最大特異値と最小特異値の比）を表示する. 
+ * 正則でない場合は無限大になる. 「結果」は変えない. 
+ */
+class ConditionNumber implements Command<Matrix> {
+    public Matrix tryExec(final String [] ts, final List<String> block, final Matrix res) {
+        if(block.size() == 1 && ts.length == 1 && "cond".equals(ts[0])) {
+            SingularValueDecomposition d = res.svd(0, false);
+            double c = d.k == 0 ? Double.POSITIVE_INFINITY : d.s[0] / d.s[d.k - 1];
+            System.out.println(String.format("条件数：%1$.3e", c));
+            return res;
+        }
+        return null;
+    }
+}
+
+/**
+ * 「結果」の擬似逆行列を現在の「結果」にする「コマンド」. 
+ * <p><blockquote><pre>{@code
+ * pinv
+ * }</pre></blockquote><p>
+ * のような 1行「ブロック」を受け付け, 特異値分解から求めた擬似逆行列を「結果」として返す. 
+ * {@code inv} と違い, 正方でない行列や正則でない行列も受け付ける. 
+ * 特異値分解が収束しなかった場合は受け付けない. 
+ */
+class PseudoInverse implements Command<Matrix> {
+    public Matrix tryExec(final String [] ts, final List<String> block, final Matrix res) {
+        if(block.size() == 1 && ts.length == 1 && "pinv".equals(ts[0])) {
+            return res.pinv(); // 実際の計算は Matrix クラス任せ
+        }
+        return null;
+    }
+}
+
 /**
  * 「結果」を固有値分解して求めた対角行列を現在の「結果」にする「コマンド」. 
  * <p><blockquote><pre>{@code
  * eigen
  * }</pre></blockquote><p>
  * のような 1行「ブロック」を受け付け, 現在の結果を固有値分解し求めた対角行列を「結果」として返す. 
+ * 複素固有値の対は 2×2 のブロック {@code [[a, b], [-b, a]]} になる. 
+ * 対称行列の場合は自動的に対称行列用の解法を使い, 固有値は昇順に並ぶ. 
  */
 class EigenValue implements Command<Matrix> {
     public Matrix tryExec(final String [] ts, final List<String> block, final Matrix res) {
@@ -681,36 +6319,292 @@ class EigenValue implements Command<Matrix> {
     }
 }
 
+/**
+ * 「結果」の絶対値の大きい方から k 個の固有値を並べた対角行列を現在の「結果」にする「コマンド」. 
+ * <p><blockquote><pre>{@code
+ * eigs k
+ * }</pre></blockquote><p>
+ * のような 1行「ブロック」を受け付け, 絶対値の大きい方から {@code k} 個の固有値を並べた対角行列を「結果」として返す. 
+ * 行列ベクトル積だけを使う陰的リスタート付きの Arnoldi 法（対称なら Lanczos 法）で求めるので, 
+ * 大きな行列でも {@code eigen} のようにすべての固有値を求める {@code O(n^3)} の計算はしない. 
+ * 複素固有値の対は {@code eigen} と同じく 2×2 のブロックになる. 
+ */
+class TopEigenValue implements Command<Matrix> {
+    public Matrix tryExec(final String [] ts, final List<String> block, final Matrix res) {
+        if(block.size() == 1 && ts.length == 2 && "eigs".equals(ts[0])) {
+            int k;
+            try {
+                k = Integer.parseInt(ts[1]);
+            } catch(NumberFormatException e) { // 数として読めなければ受け付けない
+                return null;
+            }
+            // 実際の計算は Matrix クラス任せ
+            return res.eigs(k);
+        }
+        return null;
+    }
+}
+
+/**
+ * 対称行列である「結果」を固有値分解し, 固有ベクトルを変数に保存する「コマンド」. 
+ * <p><blockquote><pre>{@code
+ * eigvec v
+ * }</pre></blockquote><p>
+ * のような 1行「ブロック」を受け付け, 固有値を昇順に並べた対角行列を「結果」として返し, 
+ * 対応する固有ベクトルを列に並べた直交行列を変数 {@code v} に保存する. 固有値と固有ベクトルは一度の分解で求める. <br />
+ * 対称行列でない場合は受け付けない. 
+ */
+class EigenVector extends CommandWithMemory<Matrix> {
+    /**
+     * 変数の情報を保持する {@code Memory} オブジェクトを受け取るコンストラクタ. 
+     * @param mem 変数の情報を保持するオブジェクト. 
+     */
+    EigenVector(Memory<Matrix> mem) {
+        super(mem); // 親のコンストラクタをそのまま呼ぶだけ
+    }
+    public Matrix tryExec(final String [] ts, final List<String> block, final Matrix res) {
+        if(block.size() == 1 && ts.length == 2 && "eigvec".equals(ts[0])) {
+            if(res.m != res.n || !EigenDecomposition.isSymmetric(res)) return null;
+            EigenDecomposition e = new EigenDecomposition(res, true);
+            if(!e.converged) return null;
+            mem.put(ts[1], e.vectors);
+            return e.diag();
+        }
+        return null;
+    }
+}
+
 /**
  * 線形方程式演算の「コマンド」. 
  * <p><blockquote><pre>{@code
  * equation
  * }</pre></blockquote><p>
  * のような 1行「ブロック」を受け付け, 現在の結果を拡大係数行列とみて線形方程式を解いた時の解を「結果」として返す. 
+ * 現在の結果が m×(m+k) 行列 [A | B] のとき, 右辺 B の k 個の列それぞれについての解を並べた m×k 行列が「結果」になる. 
+ * 係数行列 A の LU 分解を一度だけ行い, 前進代入と後退代入で k 個の右辺をまとめて解く. 
+ * A が大きくて帯幅が狭ければ帯行列の LU 分解（三重対角なら Thomas 法）で解く. <br />
+ * {@code equation rhs=b} のように変数を指定した場合は, 現在の結果を係数行列とみて, 変数 {@code b} の各列を右辺として解く. 
  */
-class LinearEquation implements Command<Matrix> {
+class LinearEquation extends CommandWithMemory<Matrix> {
+    /**
+     * @param mem 変数の情報を保持するオブジェクト. 
+     */
+    LinearEquation(Memory<Matrix> mem) {
+        super(mem); // 親のコンストラクタをそのまま呼ぶだけ
+    }
     public Matrix tryExec(final String [] ts, final List<String> block, final Matrix res) {
         if(block.size() == 1 && ts.length == 1 && "equation".equals(ts[0])){
-	    if(res.n - res.m != 1) return null;//解が一意に決まらない場合はnullを返す
-	    //行列を係数行列と定数項のベクトルに分ける
-	    Matrix w = new Matrix(res.m,res.m);
-	    Matrix x = new Matrix(res.m, 1);
-	    for(int i = 0;i< res.m; i++){
-		for(int j = 0; j < res.m ; j++){
-		    w.vals[i][j] = res.vals[i][j];
-		}
-		x.vals[i][0] = res.vals[i][res.m]; 
-	    }
-	    if(w.nonregular())return null;//係数行列が正則でないならばnullを返す
-            // 実際の計算は Matrix クラスに任せる
-	    w = w.inv();
-            return w.mul(x);
+	    if(res.n <= res.m) return null;//右辺がない場合はnullを返す
+	    //行列を係数行列と定数項の行列に分ける（コピーせずにビューで）
+	    Matrix w = BandMatrix.detect(res.slice(0, res.m, 0, res.m), BandMatrix.autoSize);
+	    Matrix x = res.slice(0, res.m, res.m, res.n);
+            // 実際の計算は Matrix クラスに任せる. 係数行列が正則でないならば null が返る
+            return w.solve(x);
+        }
+        if(block.size() == 1 && ts.length > 1 && "equation".equals(ts[0])) {
+            String [] ws = Calculator.words(block.get(0));
+            if(ws.length != 2 || !ws[1].startsWith("rhs=")) return null;
+            Matrix x = mem.get(ws[1].substring(4));
+            if(x == null) throw new UnknownVariableException(ws[1].substring(4));
+            if(res.m != res.n || x.m != res.m) return null;
+            return BandMatrix.detect(res, BandMatrix.autoSize).solve(x);
         }
         return null;
     }
 }
 
 
+/**
+ * 線形方程式を反復解法で解く「コマンド」. 
+ * <p><blockquote><pre>{@code
+ * equation cg tol=1e-10 maxit=500 rhs=b
+ * }</pre></blockquote><p>
+ * のような 1行「ブロック」を受け付け, 現在の結果を係数行列とみて, 変数 {@code b} の各列を右辺とする線形方程式を
+ * 行列ベクトル積だけを使う Krylov 部分空間法（{@code IterativeSolver}）で解き, 解を並べた行列を「結果」として返す. 
+ * {@code rhs=} を省いた場合は, {@code equation} と同じく現在の結果を拡大係数行列 [A | B] とみる. 
+ * 疎行列でも密な行列に変換せずに解ける. <br />
+ * 解法は対称正定値行列向けの {@code cg}, 非対称行列向けの {@code bicgstab} と {@code gmres(m)}（{@code m} 回ごとにリスタート, 省略時は 30）から選ぶ. 
+ * {@code tol=} は収束判定の相対残差（省略時は 1e-8）, {@code maxit=} は反復の回数の上限（省略時は 1000）. 
+ * {@code m}, {@code tol=}, {@code maxit=} が正の数でなければ受け付けない. 
+ * {@code pc=p} で, {@code precond} コマンドで作って変数 {@code p} に保存した前処理を使う. <br />
+ * 右辺ごとに反復の回数と相対残差 {@code |b - A x| / |b|} を表示する. 収束しなかった場合は警告を出し, その時点の近似解を返す. 
+ */
+class IterativeEquation extends CommandWithMemory<Matrix> {
+    /**
+     * 前処理を保持する変数. 
+     */
+    final Memory<Preconditioner> pcs;
+    /**
+     * @param mem 変数の情報を保持するオブジェクト. 
+     * @param pcs 前処理を保持する変数. 
+     */
+    IterativeEquation(Memory<Matrix> mem, Memory<Preconditioner> pcs) {
+        super(mem); // 親のコンストラクタを呼び
+        this.pcs = pcs;
+    }
+    public Matrix tryExec(final String [] ts, final List<String> block, final Matrix res) {
+        if(block.size() != 1 || ts.length < 2 || !"equation".equals(ts[0])) return null;
+        // 実数を読むので記号で切らずに空白だけで分割し直す
+        String [] ws = Calculator.words(block.get(0));
+        String method = ws[1];
+        boolean gmres = method.startsWith("gmres");
+        int restart = 30;
+        if(gmres && method.length() > 5) { // gmres(m)
+            if(method.charAt(5) != '(' || !method.endsWith(")")) return null;
+            try {
+                restart = Integer.parseInt(method.substring(6, method.length() - 1));
+            } catch(NumberFormatException e) { // 数として読めなければ受け付けない
+                return null;
+            }
+            if(restart <= 0) return null;
+        } else if(!gmres && !"cg".equals(method) && !"bicgstab".equals(method)) {
+            return null;
+        }
+        double tol = 1e-8;
+        int maxit = 1000;
+        Matrix rhs = null;
+        Preconditioner pc = null;
+        for(int p = 2; p < ws.length; p++) {
+            int eq = ws[p].indexOf('=');
+            if(eq < 0) return null;
+            String key = ws[p].substring(0, eq), val = ws[p].substring(eq + 1);
+            if("tol".equals(key) || "maxit".equals(key)) {
+                try {
+                    if("tol".equals(key)) tol = Double.parseDouble(val);
+                    else maxit = Integer.parseInt(val);
+                } catch(NumberFormatException e) { // 数として読めなければ受け付けない
+                    return null;
+                }
+            }
+            else if("rhs".equals(key)) {
+                rhs = mem.get(val);
+                if(rhs == null) throw new UnknownVariableException(val);
+            }
+            else if("pc".equals(key)) {
+                pc = pcs.get(val);
+                if(pc == null) throw new UnknownVariableException(val);
+            }
+            else return null;
+        }
+        if(!(tol > 0) || maxit <= 0) return null;
+        Matrix a = res;
+        if(rhs == null) {
+            if(res.n <= res.m) return null; // 右辺がない
+            a = res.slice(0, res.m, 0, res.m);
+            rhs = res.slice(0, res.m, res.m, res.n);
+        }
+        if(a.m != a.n || rhs.m != a.m || (pc != null && pc.dim() != a.m)) return null;
+        IterativeSolver solver = new IterativeSolver(a, pc, tol, maxit);
+        Matrix ret = new Matrix(a.m, rhs.n);
+        double [] b = new double[a.m];
+        for(int j = 0; j < rhs.n; j++) {
+            for(int i = 0; i < a.m; i++) b[i] = rhs.get(i, j);
+            double [] x = gmres ? solver.gmres(b, restart) : "cg".equals(method) ? solver.cg(b) : solver.bicgstab(b);
+            for(int i = 0; i < a.m; i++) ret.set(i, j, x[i]);
+            System.out.println(String.format("反復回数：%d 残差：%.3e", solver.iterations, solver.residual));
+            if(!solver.converged) System.err.println("Warn: " + method + " did not converge within " + maxit + " iterations");
+        }
+        return ret;
+    }
+}
+
+/**
+ * 反復解法の前処理を作って変数に保存する「コマンド」. 
+ * <p><blockquote><pre>{@code
+ * precond ilu0 p
+ * }</pre></blockquote><p>
+ * のような 1行「ブロック」を受け付け, 現在の結果を係数行列とする前処理を作り, 前処理用の変数 {@code p} に保存する. 
+ * 保存した前処理は {@code equation cg pc=p} のように使い, 同じ係数行列で右辺だけが違う求解で何度でも使い回せる. 
+ * 種類は, 対角スケーリングの {@code jacobi}, 大きさ {@code b} の対角ブロックを使う {@code bjacobi(b)}（省略時は 8）, 
+ * 不完全 LU 分解の {@code ilu0}, 対称正定値行列向けの不完全 Cholesky 分解の {@code ic0}. 
+ * 作れない（対角に 0 がある, 正定値でないなど）場合は受け付けない. 現在の「結果」は変更しない. 
+ */
+class PreconditionerValue implements Command<Matrix> {
+    /**
+     * 前処理を保持する変数. 
+     */
+    final Memory<Preconditioner> pcs;
+    /**
+     * @param pcs 前処理を保持する変数. 
+     */
+    PreconditionerValue(Memory<Preconditioner> pcs) {
+        this.pcs = pcs;
+    }
+    public Matrix tryExec(final String [] ts, final List<String> block, final Matrix res) {
+        if(block.size() != 1 || !"precond".equals(ts[0])) return null;
+        String [] ws = Calculator.words(block.get(0));
+        if(ws.length != 3) return null;
+        Preconditioner pc = Preconditioner.create(ws[1], res);
+        if(pc == null) return null;
+        pcs.put(ws[2], pc);
+        System.out.println("precond: " + pc);
+        return res;
+    }
+}
+
+/**
+ * 行列乗算カーネルのブロックの大きさを設定する「コマンド」. 
+ * <p><blockquote><pre>{@code
+ * blocksize mc kc nc
+ * }</pre></blockquote><p>
+ * のような 1行「ブロック」を受け付け, {@code Gemm} のブロックの大きさを変更する. 
+ * {@code blocksize} のみの場合は現在の設定を表示する. 現在の「結果」は変更しない. 
+ * 正でない大きさは受け付けない. 
+ */
+class GemmBlockSize implements Command<Matrix> {
+    public Matrix tryExec(final String [] ts, final List<String> block, final Matrix res) {
+        if(block.size() != 1 || !"blocksize".equals(ts[0])) return null;
+        if(ts.length == 4) {
+            int mc, kc, nc;
+            try {
+                mc = Integer.parseInt(ts[1]);
+                kc = Integer.parseInt(ts[2]);
+                nc = Integer.parseInt(ts[3]);
+            } catch(NumberFormatException e) { // 数として読めなければ受け付けない
+                return null;
+            }
+            if(mc <= 0 || kc <= 0 || nc <= 0) return null;
+            Gemm.setBlockSize(mc, kc, nc);
+        } else if(ts.length != 1) {
+            return null;
+        }
+        System.out.println("blocksize: mc=" + Gemm.mc + " kc=" + Gemm.kc + " nc=" + Gemm.nc);
+        return res;
+    }
+}
+
+
+/**
+ * 行列乗算のアルゴリズムを選ぶ「コマンド」. 
+ * <p><blockquote><pre>{@code
+ * mulalgo strassen
+ * }</pre></blockquote><p>
+ * のような 1行「ブロック」を受け付け, 以降の大きな正方行列の乗算で Strassen-Winograd 法を使う. 
+ * {@code mulalgo strassen 256} のように整数を続けると, 再帰を打ち切るサイズも変更する. 
+ * {@code mulalgo classic} で通常の乗算に戻す. 現在の「結果」は変更しない. 
+ */
+class MulAlgorithm implements Command<Matrix> {
+    public Matrix tryExec(final String [] ts, final List<String> block, final Matrix res) {
+        if(block.size() != 1 || ts.length < 2 || ts.length > 3 || !"mulalgo".equals(ts[0])) return null;
+        if("strassen".equals(ts[1])) {
+            int crossover = Strassen.crossover;
+            try {
+                if(ts.length == 3) crossover = Math.max(1, Integer.parseInt(ts[2]));
+            } catch(NumberFormatException e) { // 数として読めなければ受け付けない
+                return null;
+            }
+            Strassen.enabled = true;
+            Strassen.crossover = crossover;
+        } else if("classic".equals(ts[1]) && ts.length == 2) {
+            Strassen.enabled = false;
+        } else {
+            return null;
+        }
+        System.out.println("mulalgo: " + (Strassen.enabled ? "strassen crossover=" + Strassen.crossover : "classic"));
+        return res;
+    }
+}
+
 /**
  * 行列電卓を作成して動作させるクラス. 
  * 例えば, ターミナルで次のような実行ができる. 
@@ -760,12 +6654,21 @@ class MatrixCalc {
      * 電卓を作って実行する. 
      */
     public static void main(String [] args) throws Exception {
+        // "-kernel vector" で Vector API 版のカーネルを選べる
+        for(int i = 0; i + 1 < args.length; i++) {
+            if("-kernel".equals(args[i])) Matrix.kernels = MatrixKernels.select(args[i + 1]);
+        }
         // 行列を記憶する変数のための Memory インスタンス
-        Memory<Matrix> mem = new Memory<Matrix>();
+        MatrixMemory mem = new MatrixMemory();
+        // 反復解法の前処理を記憶する変数のための Memory インスタンス
+        Memory<Preconditioner> pcs = new Memory<Preconditioner>();
         // コマンドリストの作成
         ArrayList<Command<Matrix>> comms = new ArrayList<Command<Matrix>>();
         comms.add(new EmptyCommand<Matrix>());
         comms.add(new MatrixValue());
+        comms.add(new SparseValue());
+        comms.add(new DenseValue());
+        comms.add(new BandValue());
         comms.add(new IdentityMatrix());
         comms.add(new ZeroMatrix());
         comms.add(new MatrixAdd(mem));
@@ -773,11 +6676,32 @@ class MatrixCalc {
 	comms.add(new MatrixSub(mem));
 	comms.add(new MatrixMul(mem));
 	comms.add(new MatrixDiv(mem));
+	comms.add(new MatrixGemm(mem));
+	comms.add(new MatrixAxpy(mem));
 	comms.add(new InverseMatrix());
+	comms.add(new TransposeMatrix());
+	comms.add(new SliceMatrix());
+	comms.add(new OffHeapMatrix(mem));
 	comms.add(new UMatrix());
 	comms.add(new LMatrix());
+	comms.add(new PMatrix());
+	comms.add(new CholeskyMatrix());
 	comms.add(new EigenValue());
-        comms.add(new LinearEquation());
+	comms.add(new EigenVector(mem));
+	comms.add(new TopEigenValue());
+        comms.add(new LinearEquation(mem));
+	comms.add(new IterativeEquation(mem, pcs));
+	comms.add(new PreconditionerValue(pcs));
+	comms.add(new QRMatrix(mem));
+	comms.add(new LeastSquares());
+	comms.add(new SingularValue(mem));
+	comms.add(new RandomizedSingularValue(mem));
+	comms.add(new MatrixRank());
+	comms.add(new ConditionNumber());
+	comms.add(new PseudoInverse());
+	comms.add(new GemmBlockSize());
+	comms.add(new ThreadCount());
+	comms.add(new MulAlgorithm());
 	comms.add(new LoadStore<Matrix>(mem));
         comms.add(mem);
         // 入力は標準入力から
@@ -0,0 +1,78 @@
+/*
+ * 行列の要素を Java のヒープの外に置くための領域. Foreign Memory API（java.lang.foreign）を使う. 
+ * java.lang.foreign は Java 22 で正式な機能になった（Java 21 ではプレビュー機能）. 
+ * それより前の JDK ではコンパイルできないので, 既定のソース（リポジトリ直下の *.java）には含めず, 
+ * このディレクトリに分けてある. 
+ * コンパイル & 実行（リポジトリ直下で. 先に電卓本体をコンパイルしておく）：
+ * javac *.java
+ * javac -cp . -d . offheap/MatrixOffHeap.java
+ * java MatrixCalc
+ * （Java 21 では javac に --enable-preview --release 21 を, java に --enable-preview を付ける）
+ * このファイルをコンパイルしない場合や, 実行時に読み込めない場合は, 
+ * 電卓は行列を常にヒープ上に置く. 
+ */
+
+import java.lang.foreign.*;
+import java.lang.ref.Cleaner;
+
+/**
+ * {@code MemorySegment} で要素を保持するヒープ外の領域. 
+ * 領域は共有 {@code Arena} から 64 バイト境界に揃えて確保するので, 
+ * 並列計算中の複数のスレッドから読み書きでき, {@code free} で即座に解放できる. <br />
+ * 変数に保存されないまま捨てられた行列の領域は, GC に回収される際に {@code Cleaner} が解放する. 
+ * {@code MatrixStorage.allocate} からリフレクションで生成される. 
+ */
+class OffHeapStorage extends MatrixStorage {
+    /**
+     * 回収された領域を解放するための {@code Cleaner}. 
+     */
+    static final Cleaner cleaner = Cleaner.create();
+    /**
+     * 領域の確保に使う境界（キャッシュラインの大きさ）. 
+     */
+    static final long ALIGN = 64;
+    /**
+     * 領域の寿命を管理する {@code Arena}. 
+     */
+    final Arena arena;
+    /**
+     * 要素を置く領域. 
+     */
+    final MemorySegment seg;
+    /**
+     * GC による解放の登録. 明示的に解放したときは登録を外すのに使う. 
+     */
+    final Cleaner.Cleanable cleanable;
+
+    /**
+     * {@code double} を {@code n} 個置ける, 0 で初期化された領域を確保するコンストラクタ. 
+     * @param n 要素の数
+     */
+    OffHeapStorage(long n) {
+        Arena a = Arena.ofShared();
+        arena = a;
+        seg = a.allocate(n * Double.BYTES, ALIGN);
+        seg.fill((byte)0);
+        // this を捕まえないように Arena だけを渡す
+        cleanable = cleaner.register(this, () -> closeQuietly(a));
+    }
+    double get(long i) {
+        return seg.getAtIndex(ValueLayout.JAVA_DOUBLE, i);
+    }
+    void set(long i, double v) {
+        seg.setAtIndex(ValueLayout.JAVA_DOUBLE, i, v);
+    }
+    void free() {
+        cleanable.clean(); // 一度しか実行されない
+    }
+    /**
+     * {@code Arena} を閉じる. すでに閉じていれば何もしない. 
+     */
+    static void closeQuietly(Arena a) {
+        try {
+            a.close();
+        } catch(IllegalStateException e) {
+            // すでに閉じている
+        }
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ * 行列電卓の内側のループを Vector API（jdk.incubator.vector）で書いたカーネル. 
+ * jdk.incubator.vector はモジュールを指定しないと見えないので, 既定のソース（リポジトリ直下の *.java）には含めず, 
+ * このディレクトリに分けてある. 
+ * コンパイル & 実行（リポジトリ直下で. 先に電卓本体をコンパイルしておく）：
+ * javac *.java
+ * javac --add-modules jdk.incubator.vector -cp . -d . vector/MatrixVector.java
+ * java --add-modules jdk.incubator.vector MatrixCalc -kernel vector
+ * このファイルをコンパイルしない場合や, 実行時にモジュールがない場合は, 
+ * 電卓は自動的に ScalarKernels を使う. 
+ */
+
+import jdk.incubator.vector.*;
+
+/**
+ * Vector API で書いたカーネル. 
+ * {@code add}, {@code scale}, {@code axpy}, {@code dot} はそのマシンで最も幅の広いベクトル（{@code SPECIES_PREFERRED}）で, 
+ * 端数は普通のループで処理する. 
+ * マイクロカーネルは {@code Gemm.NR}（= 4）列を 1本のベクトルとして扱う. 
+ * {@code MatrixKernels.select} からリフレクションで生成される. 
+ */
+class VectorKernels implements MatrixKernels {
+    /**
+     * ループに使うベクトルの種類. 
+     */
+    static final VectorSpecies<Double> S = DoubleVector.SPECIES_PREFERRED;
+    /**
+     * マイクロカーネルに使う, {@code Gemm.NR} 要素のベクトルの種類. 
+     */
+    static final VectorSpecies<Double> S4 = DoubleVector.SPECIES_256;
+
+    public void add(int len, double [] x, int xo, double [] y, int yo, double [] z, int zo) {
+        int p = 0;
+        for(int bound = S.loopBound(len); p < bound; p += S.length()) {
+            DoubleVector.fromArray(S, x, xo + p).add(DoubleVector.fromArray(S, y, yo + p)).intoArray(z, zo + p);
+        }
+        for(; p < len; p++) {
+            z[zo + p] = x[xo + p] + y[yo + p];
+        }
+    }
+    public void scale(int len, double a, double [] x, int xo, double [] y, int yo) {
+        int p = 0;
+        for(int bound = S.loopBound(len); p < bound; p += S.length()) {
+            DoubleVector.fromArray(S, x, xo + p).mul(a).intoArray(y, yo + p);
+        }
+        for(; p < len; p++) {
+            y[yo + p] = a * x[xo + p];
+        }
+    }
+    public void axpy(int len, double a, double [] x, int xo, double [] y, int yo) {
+        int p = 0;
+        DoubleVector va = DoubleVector.broadcast(S, a);
+        for(int bound = S.loopBound(len); p < bound; p += S.length()) {
+            DoubleVector.fromArray(S, x, xo + p).fma(va, DoubleVector.fromArray(S, y, yo + p)).intoArray(y, yo + p);
+        }
+        for(; p < len; p++) {
+            y[yo + p] += a * x[xo + p];
+        }
+    }
+    public double dot(int len, double [] x, int xo, double [] y, int yo) {
+        int p = 0;
+        DoubleVector acc = DoubleVector.zero(S);
+        for(int bound = S.loopBound(len); p < bound; p += S.length()) {
+            acc = DoubleVector.fromArray(S, x, xo + p).fma(DoubleVector.fromArray(S, y, yo + p), acc);
+        }
+        double s = acc.reduceLanes(VectorOperators.ADD);
+        for(; p < len; p++) {
+            s += x[xo + p] * y[yo + p];
+        }
+        return s;
+    }
+    /**
+     * B のパネルの 1行（{@code Gemm.NR} 要素）を 1本のベクトルとして読み, 
+     * A の {@code Gemm.MR} 個の要素をそれぞれ放送して積和する. 
+     */
+    public void micro(int kb, double [] ap, int ao, double [] bp, int bo, double [] t) {
+        DoubleVector c0 = DoubleVector.zero(S4), c1 = c0, c2 = c0, c3 = c0;
+        for(int p = 0; p < kb; p++) {
+            DoubleVector b = DoubleVector.fromArray(S4, bp, bo);
+            c0 = b.fma(DoubleVector.broadcast(S4, ap[ao]), c0);
+            c1 = b.fma(DoubleVector.broadcast(S4, ap[ao + 1]), c1);
+            c2 = b.fma(DoubleVector.broadcast(S4, ap[ao + 2]), c2);
+            c3 = b.fma(DoubleVector.broadcast(S4, ap[ao + 3]), c3);
+            ao += Gemm.MR;
+            bo += Gemm.NR;
+        }
+        c0.intoArray(t, 0);
+        c1.intoArray(t, Gemm.NR);
+        c2.intoArray(t, 2 * Gemm.NR);
+        c3.intoArray(t, 3 * Gemm.NR);
+    }
+}